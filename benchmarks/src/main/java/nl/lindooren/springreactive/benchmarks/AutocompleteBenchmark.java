@@ -0,0 +1,70 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.search.AutocompleteIndex;
+import nl.lindooren.springreactive.search.MediaItem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up what the user typed so far in an {@link AutocompleteIndex} that is full, and adding items to it
+ * (which evicts the least recently used ones).
+ * <pre>
+ *     java -jar target/benchmarks.jar AutocompleteBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutocompleteBenchmark {
+
+    private static final String[] WORDS = {"bicycle", "club", "road", "the", "wind", "blues", "science", "history",
+            "global", "kind", "fix", "tomorrow", "book", "everything", "loose", "beatles", "abbey", "imagine"};
+
+    @Param({"1000", "20000"})
+    int nrOfItems;
+
+    AutocompleteIndex index;
+    MediaItem[] newItems;
+    int next;
+
+    @Setup
+    public void fillIndex() {
+        Random random = new Random(42);
+        index = new AutocompleteIndex(nrOfItems);
+        for (int i = 0; i < nrOfItems; i++) {
+            index.add(createItem(random, i));
+        }
+        newItems = new MediaItem[1024];
+        for (int i = 0; i < newItems.length; i++) {
+            newItems[i] = createItem(random, nrOfItems + i);
+        }
+    }
+
+    private static MediaItem createItem(final Random random, final int i) {
+        return new MediaItem(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i,
+                Collections.singleton(WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(100)),
+                random.nextBoolean() ? "ALBUM" : "BOOK");
+    }
+
+    @Benchmark
+    public List<MediaItem> lookupShortPrefix() {
+        return index.lookup("b", 40);
+    }
+
+    @Benchmark
+    public List<MediaItem> lookupLongPrefix() {
+        return index.lookup("beatles ab", 40);
+    }
+
+    @Benchmark
+    public void addAndEvict() {
+        index.add(newItems[next++ & (newItems.length - 1)]);
+    }
+}
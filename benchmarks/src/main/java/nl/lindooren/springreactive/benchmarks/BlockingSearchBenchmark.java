@@ -0,0 +1,183 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.apple.Album;
+import nl.lindooren.springreactive.apple.ItunesAlbumMediaSource;
+import nl.lindooren.springreactive.apple.ItunesAlbumService;
+import nl.lindooren.springreactive.google.Book;
+import nl.lindooren.springreactive.google.GoogleBookMediaSource;
+import nl.lindooren.springreactive.google.GoogleBookService;
+import nl.lindooren.springreactive.resilience.CircuitBreakers;
+import nl.lindooren.springreactive.search.AutocompleteIndex;
+import nl.lindooren.springreactive.search.BlockingSearchServiceImpl;
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.RelevanceRanker;
+import nl.lindooren.springreactive.search.SearchResultCache;
+import nl.lindooren.springreactive.search.SearchServiceImpl;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of searches that are in flight at the same time, with webservices that answer after 20ms:
+ * through the reactive {@link SearchServiceImpl}, and through the {@link BlockingSearchServiceImpl} called by
+ * a thread per search (platform threads, or virtual threads when the JVM has them, Java 21 on).
+ * The heap retained per search in flight is printed before every trial.
+ * <pre>
+ *     java -jar target/benchmarks.jar BlockingSearchBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingSearchBenchmark {
+
+    private static final String QUERY = "bicycle ";
+    private static final Duration LATENCY = Duration.ofMillis(20);
+    // Long enough for the heap to be measured (after a GC) while the searches wait, well within the budget
+    private static final Duration MEASUREMENT_LATENCY = Duration.ofMillis(500);
+    private static final Duration BUDGET = Duration.ofSeconds(1);
+    private static final int ITEMS_PER_SOURCE = 10;
+
+    @Param({"reactive", "platformThreads", "virtualThreads"})
+    String mode;
+
+    @Param({"100", "1000"})
+    int inFlight;
+
+    AnnotationConfigApplicationContext context;
+    SearchServiceImpl searchService;
+    BlockingSearchServiceImpl blockingSearchService;
+    // The callers of the blocking search service, a thread per search
+    ExecutorService callers;
+    // Counted down by every source that is called, so the whole batch is in flight when it reaches zero
+    volatile CountDownLatch sourcesCalled = new CountDownLatch(0);
+    volatile Duration latency = LATENCY;
+
+    @Setup
+    public void createSearchServices() throws Exception {
+        context = StatsContexts.start();
+        StatsService statsService = context.getBean(StatsService.class);
+
+        Random random = new Random(42);
+        List<Album> albums = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < ITEMS_PER_SOURCE; i++) {
+            albums.add(new Album("Bicycle " + random.nextInt(1000), "Bombay Bicycle Club"));
+            books.add(new Book("The Bicycle Book " + random.nextInt(1000),
+                    Collections.singleton("Author " + random.nextInt(100))));
+        }
+
+        // Without a cache, and a query per search, so identical searches aren't coalesced
+        searchService = new SearchServiceImpl(
+                Arrays.asList(new ItunesAlbumMediaSource(new ItunesAlbumService() {
+                            @Override
+                            public Flux<Album> searchAlbums(String query, int maxResults) {
+                                return respondLater(albums);
+                            }
+
+                            @Override
+                            public Flux<Album> searchAlbums(String query, int offset, int maxResults, int pageSize) {
+                                return respondLater(albums);
+                            }
+                        }),
+                        new GoogleBookMediaSource(new GoogleBookService() {
+                            @Override
+                            public Flux<Book> searchBooks(String query, int maxResults) {
+                                return respondLater(books);
+                            }
+
+                            @Override
+                            public Flux<Book> searchBooks(String query, int startIndex, int maxResults, int pageSize) {
+                                return respondLater(books);
+                            }
+                        })),
+                statsService, SearchResultCache.NONE, new CircuitBreakers(statsService, 50, 20, 5000, 3),
+                new RelevanceRanker(2 * ITEMS_PER_SOURCE), new AutocompleteIndex(1000), ITEMS_PER_SOURCE,
+                8, 20, 5);
+        boolean virtualThreads = mode.equals("virtualThreads");
+        blockingSearchService = new BlockingSearchServiceImpl(searchService,
+                new RelevanceRanker(2 * ITEMS_PER_SOURCE), virtualThreads);
+        callers = BlockingSearchServiceImpl.newExecutor(virtualThreads);
+
+        printRetainedBytesPerSearch();
+    }
+
+    private <T> Flux<T> respondLater(final List<T> results) {
+        return Flux.fromIterable(results)
+                .delaySubscription(latency)
+                .doOnSubscribe(subscription -> sourcesCalled.countDown());
+    }
+
+    /**
+     * Compares the heap used while a batch is in flight with the heap used before, both after a GC,
+     * so only what the searches hold on to while waiting is counted
+     */
+    private void printRetainedBytesPerSearch() throws Exception {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        final CountDownLatch called = new CountDownLatch(2 * inFlight);
+        sourcesCalled = called;
+        latency = MEASUREMENT_LATENCY;
+        final Runnable waitForBatch = startBatch();
+        called.await(10, TimeUnit.SECONDS);
+        System.gc();
+        final long during = runtime.totalMemory() - runtime.freeMemory();
+        waitForBatch.run();
+        latency = LATENCY;
+        System.out.printf("%n%s: %.0f bytes retained per search in flight%n", mode,
+                (double) (during - before) / inFlight);
+    }
+
+    @TearDown
+    public void stopServices() {
+        callers.shutdownNow();
+        context.close();
+    }
+
+    @Benchmark
+    public void batch() {
+        startBatch().run();
+    }
+
+    /**
+     * @return waits until every search of the batch has its results
+     */
+    private Runnable startBatch() {
+        if (mode.equals("reactive")) {
+            final Mono<List<List<MediaItem>>> batch = Flux.range(0, inFlight)
+                    .flatMap(i -> searchService.searchAlbumsAndBooks(QUERY + i, BUDGET).collectList(), inFlight)
+                    .collectList()
+                    .cache();
+            batch.subscribe();
+            return batch::block;
+        }
+        final List<Future<List<MediaItem>>> searches = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            final String query = QUERY + i;
+            searches.add(callers.submit(() -> blockingSearchService.searchAlbumsAndBooks(query, BUDGET)));
+        }
+        return () -> {
+            for (Future<List<MediaItem>> search : searches) {
+                try {
+                    search.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+}
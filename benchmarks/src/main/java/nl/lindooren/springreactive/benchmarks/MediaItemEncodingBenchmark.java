@@ -0,0 +1,142 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.MediaItemBinaryEncoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Creating {@link MediaItem}s and encoding a {@code Flux<MediaItem>} the way WebFlux writes a response
+ * into pooled Netty buffers: as a JSON array (the search), as newline delimited JSON (the stream),
+ * as Smile and in the length-prefixed {@link MediaItemBinaryEncoder} format.
+ * The results are per item, so {@code gc.alloc.rate.norm} is the number of bytes allocated per item.
+ * The number of bytes sent per item is printed at the start of every encoding benchmark.
+ * <pre>
+ *     java -jar target/benchmarks.jar MediaItemEncodingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaItemEncodingBenchmark {
+
+    static final int NR_OF_ITEMS = 100;
+    private static final ResolvableType MEDIA_ITEM = ResolvableType.forClass(MediaItem.class);
+    private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    // Configured like the ObjectMappers of the application
+    private final Jackson2JsonEncoder jsonEncoder = new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json().build());
+    private final Jackson2SmileEncoder smileEncoder = new Jackson2SmileEncoder(Jackson2ObjectMapperBuilder.smile().build());
+    private final MediaItemBinaryEncoder binaryEncoder = new MediaItemBinaryEncoder();
+
+    String[] titles;
+    Set<String>[] authors;
+    List<MediaItem> items;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void createItems(BenchmarkParams params) {
+        Random random = new Random(42);
+        titles = new String[NR_OF_ITEMS];
+        authors = new Set[NR_OF_ITEMS];
+        items = new ArrayList<>(NR_OF_ITEMS);
+        for (int i = 0; i < NR_OF_ITEMS; i++) {
+            titles[i] = "The Bicycle - Towards a Global History, part " + random.nextInt(1000);
+            authors[i] = random.nextBoolean()
+                    ? Collections.singleton("Bombay Bicycle Club")
+                    : new HashSet<>(Arrays.asList("Intertec Publishing Corporation", "P. Smethurst"));
+            items.add(new MediaItem(titles[i], authors[i], i % 2 == 0 ? "ALBUM" : "BOOK"));
+        }
+        printBytesPerItem(params);
+    }
+
+    private void printBytesPerItem(final BenchmarkParams params) {
+        final String benchmark = params.getBenchmark().substring(params.getBenchmark().lastIndexOf('.') + 1);
+        final MutableLong bytes = new MutableLong();
+        switch (benchmark) {
+            case "jsonArray":
+                encode(jsonEncoder, MediaType.APPLICATION_JSON_UTF8, bytes::add);
+                break;
+            case "streamJson":
+                encode(jsonEncoder, MediaType.APPLICATION_STREAM_JSON, bytes::add);
+                break;
+            case "smile":
+                encode(smileEncoder, SMILE, bytes::add);
+                break;
+            case "binary":
+                encode(binaryEncoder, MediaItemBinaryEncoder.MEDIA_ITEMS, bytes::add);
+                break;
+            default:
+                return;
+        }
+        System.out.printf("%n%s: %.1f bytes/item%n", benchmark, (double) bytes.value / NR_OF_ITEMS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NR_OF_ITEMS)
+    public void construction(Blackhole blackhole) {
+        for (int i = 0; i < NR_OF_ITEMS; i++) {
+            blackhole.consume(new MediaItem(titles[i], authors[i], "BOOK"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NR_OF_ITEMS)
+    public void jsonArray(Blackhole blackhole) {
+        encode(jsonEncoder, MediaType.APPLICATION_JSON_UTF8, blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NR_OF_ITEMS)
+    public void streamJson(Blackhole blackhole) {
+        encode(jsonEncoder, MediaType.APPLICATION_STREAM_JSON, blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NR_OF_ITEMS)
+    public void smile(Blackhole blackhole) {
+        encode(smileEncoder, SMILE, blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NR_OF_ITEMS)
+    public void binary(Blackhole blackhole) {
+        encode(binaryEncoder, MediaItemBinaryEncoder.MEDIA_ITEMS, blackhole::consume);
+    }
+
+    private void encode(final Encoder<? super MediaItem> encoder, final MediaType mediaType,
+                        final IntConsumer bytesWritten) {
+        encoder.encode(Flux.fromIterable(items), bufferFactory, MEDIA_ITEM, mediaType, Collections.emptyMap())
+                .subscribe(buffer -> {
+                    bytesWritten.accept(buffer.readableByteCount());
+                    DataBufferUtils.release(buffer);
+                });
+    }
+
+    private static class MutableLong {
+        private long value;
+
+        private void add(final int bytes) {
+            value += bytes;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.RelevanceRanker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging the results of two sources (about a fifth of them near-duplicates), comparing a naive approach
+ * (compare every item with all distinct items so far, then sort all of them)
+ * with the {@link RelevanceRanker} (one pass with a hash set and a bounded heap of the best 50).
+ * <pre>
+ *     java -jar target/benchmarks.jar RelevanceRankingBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelevanceRankingBenchmark {
+
+    private static final String QUERY = "bicycle";
+    private static final int MAX_RESULTS = 50;
+    private static final String[] WORDS = {"bicycle", "club", "road", "the", "wind", "blues", "science", "history",
+            "global", "kind", "fix", "tomorrow", "book", "everything", "loose"};
+
+    @Param({"10", "100", "1000"})
+    int itemsPerSource;
+
+    List<List<MediaItem>> runs;
+    private final RelevanceRanker ranker = new RelevanceRanker(MAX_RESULTS);
+
+    @Setup
+    public void createItems() {
+        Random random = new Random(42);
+        runs = Arrays.asList(createItems(random, "ALBUM"), createItems(random, "BOOK"));
+    }
+
+    private List<MediaItem> createItems(final Random random, final String type) {
+        List<MediaItem> items = new ArrayList<>(itemsPerSource);
+        for (int i = 0; i < itemsPerSource; i++) {
+            if (i > 0 && random.nextInt(5) == 0) {
+                MediaItem original = items.get(random.nextInt(i));
+                items.add(new MediaItem(original.getTitle().toUpperCase() + " (Remastered)",
+                        original.getAuthors(), type));
+            } else {
+                items.add(new MediaItem(words(random, 1 + random.nextInt(4)),
+                        Collections.singleton(words(random, 2)), type));
+            }
+        }
+        return items;
+    }
+
+    private static String words(final Random random, final int nrOfWords) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < nrOfWords; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            words.append(i == 0 ? "" : " ").append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return words.toString();
+    }
+
+    @Benchmark
+    public List<MediaItem> ranker() {
+        return ranker.rank(QUERY, runs);
+    }
+
+    @Benchmark
+    public List<MediaItem> pairwiseAndSort() {
+        List<String> keys = new ArrayList<>();
+        List<MediaItem> distinct = new ArrayList<>();
+        for (List<MediaItem> run : runs) {
+            for (MediaItem item : run) {
+                String key = RelevanceRanker.keyOf(item);
+                if (!keys.contains(key)) {
+                    keys.add(key);
+                    distinct.add(item);
+                }
+            }
+        }
+        Collections.sort(distinct);
+        return distinct.subList(0, Math.min(MAX_RESULTS, distinct.size()));
+    }
+}
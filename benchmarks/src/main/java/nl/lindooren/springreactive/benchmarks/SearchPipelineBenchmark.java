@@ -0,0 +1,110 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.apple.Album;
+import nl.lindooren.springreactive.apple.ItunesAlbumMediaSource;
+import nl.lindooren.springreactive.apple.ItunesAlbumService;
+import nl.lindooren.springreactive.google.Book;
+import nl.lindooren.springreactive.google.GoogleBookMediaSource;
+import nl.lindooren.springreactive.google.GoogleBookService;
+import nl.lindooren.springreactive.resilience.CircuitBreakers;
+import nl.lindooren.springreactive.search.AutocompleteIndex;
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.RelevanceRanker;
+import nl.lindooren.springreactive.search.SearchCursor;
+import nl.lindooren.springreactive.search.SearchPage;
+import nl.lindooren.springreactive.search.SearchResultCache;
+import nl.lindooren.springreactive.search.SearchServiceImpl;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A search through the {@link SearchServiceImpl} (time-outs, circuit breakers, coalescing, deduplication
+ * and ranking) with webservices that answer immediately, so only the overhead of the pipeline is measured.
+ * <pre>
+ *     java -jar target/benchmarks.jar SearchPipelineBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchPipelineBenchmark {
+
+    private static final String QUERY = "bicycle";
+    private static final Duration BUDGET = Duration.ofSeconds(1);
+
+    @Param({"5", "50"})
+    int itemsPerSource;
+
+    AnnotationConfigApplicationContext context;
+    SearchServiceImpl searchService;
+
+    @Setup
+    public void createSearchService() {
+        context = StatsContexts.start();
+        StatsService statsService = context.getBean(StatsService.class);
+
+        Random random = new Random(42);
+        List<Album> albums = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < itemsPerSource; i++) {
+            albums.add(new Album("Bicycle " + random.nextInt(1000), "Bombay Bicycle Club"));
+            books.add(new Book("The Bicycle Book " + random.nextInt(1000),
+                    Collections.singleton("Author " + random.nextInt(100))));
+        }
+
+        searchService = new SearchServiceImpl(
+                Arrays.asList(new ItunesAlbumMediaSource(new ItunesAlbumService() {
+                            @Override
+                            public Flux<Album> searchAlbums(String query, int maxResults) {
+                                return Flux.fromIterable(albums);
+                            }
+
+                            @Override
+                            public Flux<Album> searchAlbums(String query, int offset, int maxResults, int pageSize) {
+                                return Flux.fromIterable(albums).skip(offset).take(maxResults);
+                            }
+                        }),
+                        new GoogleBookMediaSource(new GoogleBookService() {
+                            @Override
+                            public Flux<Book> searchBooks(String query, int maxResults) {
+                                return Flux.fromIterable(books);
+                            }
+
+                            @Override
+                            public Flux<Book> searchBooks(String query, int startIndex, int maxResults, int pageSize) {
+                                return Flux.fromIterable(books).skip(startIndex).take(maxResults);
+                            }
+                        })),
+                statsService, SearchResultCache.NONE, new CircuitBreakers(statsService, 50, 20, 5000, 3),
+                new RelevanceRanker(2 * itemsPerSource), new AutocompleteIndex(1000), itemsPerSource, 8, 20, 5);
+    }
+
+    @TearDown
+    public void stopStatsService() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<MediaItem> ranked() {
+        return searchService.searchAlbumsAndBooks(QUERY).collectList().block();
+    }
+
+    @Benchmark
+    public List<MediaItem> streamed() {
+        return searchService.streamAlbumsAndBooks(QUERY).collectList().block();
+    }
+
+    @Benchmark
+    public SearchPage firstPage() {
+        return searchService.searchAlbumsAndBooksPage(QUERY, SearchCursor.START, itemsPerSource, BUDGET).block();
+    }
+}
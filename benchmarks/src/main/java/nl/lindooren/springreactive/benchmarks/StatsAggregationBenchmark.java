@@ -0,0 +1,70 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import nl.lindooren.springreactive.stats.WebserviceStats;
+import nl.lindooren.springreactive.stats.WebserviceStatsRecorder;
+import org.openjdk.jmh.annotations.*;
+import org.pcollections.TreePVector;
+
+import java.time.Duration;
+import java.util.LongSummaryStatistics;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of all events of one stats window, comparing the former approach
+ * (append to a persistent vector and summarize all response times again on every event)
+ * with the {@link WebserviceStatsRecorder}.
+ * <pre>
+ *     java -jar target/benchmarks.jar StatsAggregationBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsAggregationBenchmark {
+
+    private static final Duration WINDOW_SIZE = Duration.ofSeconds(5);
+
+    @Param({"1000", "10000", "100000"})
+    int eventsPerWindow;
+
+    WebserviceCallEvent[] events;
+
+    @Setup
+    public void createEvents() {
+        Random random = new Random(42);
+        events = new WebserviceCallEvent[eventsPerWindow];
+        for (int i = 0; i < eventsPerWindow; i++) {
+            boolean success = random.nextInt(100) >= 5;
+            events[i] = new WebserviceCallEvent("books", success,
+                    success ? Optional.of(50L + (long) Math.abs(random.nextGaussian() * 300)) : Optional.empty());
+        }
+    }
+
+    @Benchmark
+    public WebserviceStats recorder() {
+        WebserviceStatsRecorder recorder = new WebserviceStatsRecorder();
+        for (WebserviceCallEvent event : events) {
+            recorder.record(event);
+        }
+        return recorder.toWebserviceStats(WINDOW_SIZE);
+    }
+
+    @Benchmark
+    public LongSummaryStatistics persistentVectorReduce() {
+        TreePVector<Long> responseTimes = TreePVector.empty();
+        LongSummaryStatistics summary = new LongSummaryStatistics();
+        for (WebserviceCallEvent event : events) {
+            if (event.getResponseTime().isPresent()) {
+                responseTimes = responseTimes.plus(event.getResponseTime().get());
+                summary = responseTimes.stream().mapToLong(value -> value).summaryStatistics();
+            }
+        }
+        return summary;
+    }
+}
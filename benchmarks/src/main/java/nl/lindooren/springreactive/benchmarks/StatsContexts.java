@@ -0,0 +1,32 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.stats.MetricsConfiguration;
+import nl.lindooren.springreactive.stats.StatsServiceImpl;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Creates the stats service the way the application does it (initialized by Spring, configured by the
+ * application.properties of the application), without starting the rest of the application
+ */
+final class StatsContexts {
+
+    private StatsContexts() {
+    }
+
+    static AnnotationConfigApplicationContext start() {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        try {
+            context.getEnvironment().getPropertySources()
+                    .addFirst(new ResourcePropertySource("classpath:application.properties"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        context.register(StatsServiceImpl.class, MetricsConfiguration.class);
+        context.refresh();
+        return context;
+    }
+}
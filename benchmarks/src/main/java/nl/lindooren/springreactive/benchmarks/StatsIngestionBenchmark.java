@@ -0,0 +1,108 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.StatsServiceImpl;
+import nl.lindooren.springreactive.stats.WebserviceStats;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing call events to the {@link StatsServiceImpl} by 1, 4 and 16 producers (like the webservices do
+ * from the event loops), and aggregating the stats of a window while it is being fed.
+ * The events dropped because the event bus couldn't keep up are printed after every trial.
+ * <pre>
+ *     java -jar target/benchmarks.jar StatsIngestionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsIngestionBenchmark {
+
+    private static final String[] SERVICE_NAMES = {"books", "albums"};
+    private static final int NR_OF_RESPONSE_TIMES = 1024;
+
+    AnnotationConfigApplicationContext context;
+    StatsService statsService;
+
+    @Setup
+    public void startStatsService() {
+        context = StatsContexts.start();
+        statsService = context.getBean(StatsService.class);
+    }
+
+    @TearDown
+    public void stopStatsService() {
+        System.out.println("\nEvent stream counters: " + statsService.getEventStreamCounters());
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Optional<Long>[] responseTimes = createResponseTimes();
+        int next;
+
+        @SuppressWarnings("unchecked")
+        private static Optional<Long>[] createResponseTimes() {
+            Random random = new Random();
+            Optional<Long>[] responseTimes = new Optional[NR_OF_RESPONSE_TIMES];
+            for (int i = 0; i < NR_OF_RESPONSE_TIMES; i++) {
+                responseTimes[i] = random.nextInt(100) < 5
+                        ? Optional.empty()
+                        : Optional.of(50L + (long) Math.abs(random.nextGaussian() * 300));
+            }
+            return responseTimes;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneProducer(Producer producer) {
+        publish(producer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourProducers(Producer producer) {
+        publish(producer);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void sixteenProducers(Producer producer) {
+        publish(producer);
+    }
+
+    @Benchmark
+    @Group("aggregation")
+    @GroupThreads(3)
+    public void aggregationProducers(Producer producer) {
+        publish(producer);
+    }
+
+    @Benchmark
+    @Group("aggregation")
+    @GroupThreads(1)
+    public Optional<WebserviceStats> aggregationOfAMinute() {
+        return statsService.getStatsForWebservice(SERVICE_NAMES[0], Duration.ofMinutes(1));
+    }
+
+    private void publish(final Producer producer) {
+        final int next = producer.next++ & (NR_OF_RESPONSE_TIMES - 1);
+        final Optional<Long> responseTime = producer.responseTimes[next];
+        final String serviceName = SERVICE_NAMES[next & 1];
+        if (responseTime.isPresent()) {
+            statsService.notifyOfSuccessfulCall(serviceName, responseTime);
+        } else {
+            statsService.notifyOfFailedCall(serviceName);
+        }
+    }
+}
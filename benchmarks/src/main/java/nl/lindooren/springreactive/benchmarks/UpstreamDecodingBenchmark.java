@@ -0,0 +1,207 @@
+package nl.lindooren.springreactive.benchmarks;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.lindooren.springreactive.apple.Album;
+import nl.lindooren.springreactive.apple.ItunesAlbumServiceImpl;
+import nl.lindooren.springreactive.google.Book;
+import nl.lindooren.springreactive.google.GoogleBookServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decoding of recorded upstream responses (20 items each, see src/main/resources/fixtures),
+ * comparing the former approach (join the whole body and bind it to a response object, then flatten it)
+ * with the streaming decoders of the webservices.
+ * The results are per item, so {@code gc.alloc.rate.norm} is the number of bytes allocated per item
+ * (the bytes allocated per item by the decoding alone are printed before every trial as well).
+ * <pre>
+ *     java -jar target/benchmarks.jar UpstreamDecodingBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(UpstreamDecodingBenchmark.NR_OF_ITEMS)
+public class UpstreamDecodingBenchmark {
+
+    static final int NR_OF_ITEMS = 20;
+    // The size of the chunks in which a response is received
+    private static final int CHUNK_SIZE = 8192;
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    // The chunks of the responses, wrapped in new buffers for every decoding
+    byte[][] googleBooks;
+    byte[][] itunesAlbums;
+
+    @Setup
+    public void readFixtures() throws IOException {
+        googleBooks = chunked(readFixture("google-books.json"));
+        itunesAlbums = chunked(readFixture("itunes-albums.json"));
+        printAllocatedBytesPerItem();
+    }
+
+    @Benchmark
+    public void googleBooksMaterialized(Blackhole blackhole) {
+        decodeGoogleBooksMaterialized(blackhole::consume);
+    }
+
+    @Benchmark
+    public void googleBooksStreamed(Blackhole blackhole) {
+        decodeGoogleBooksStreamed(blackhole::consume);
+    }
+
+    @Benchmark
+    public void itunesAlbumsMaterialized(Blackhole blackhole) {
+        decodeItunesAlbumsMaterialized(blackhole::consume);
+    }
+
+    @Benchmark
+    public void itunesAlbumsStreamed(Blackhole blackhole) {
+        decodeItunesAlbumsStreamed(blackhole::consume);
+    }
+
+    private void decodeGoogleBooksMaterialized(final Consumer<Object> consumer) {
+        final GoogleBookResponse response = buffers(googleBooks).reduce(new ByteArrayOutputStream(), this::join)
+                .map(joined -> readValue(joined, GoogleBookResponse.class)).block();
+        for (GoogleBookResponse.Item item : response.items) {
+            consumer.accept(new Book(item.volumeInfo.title,
+                    item.volumeInfo.authors == null ? Collections.emptySet() : item.volumeInfo.authors));
+        }
+    }
+
+    private void decodeGoogleBooksStreamed(final Consumer<Object> consumer) {
+        GoogleBookServiceImpl.DECODER.decode(buffers(googleBooks)).subscribe(consumer);
+    }
+
+    private void decodeItunesAlbumsMaterialized(final Consumer<Object> consumer) {
+        final ItunesAlbumResponse response = buffers(itunesAlbums).reduce(new ByteArrayOutputStream(), this::join)
+                .map(joined -> readValue(joined, ItunesAlbumResponse.class)).block();
+        for (ItunesAlbumResponse.Result result : response.results) {
+            consumer.accept(new Album(result.collectionName, result.artistName));
+        }
+    }
+
+    private void decodeItunesAlbumsStreamed(final Consumer<Object> consumer) {
+        ItunesAlbumServiceImpl.DECODER.decode(buffers(itunesAlbums)).subscribe(consumer);
+    }
+
+    /**
+     * Measures the bytes allocated by this thread while decoding, after a warm-up so the JIT has done its work
+     */
+    private void printAllocatedBytesPerItem() {
+        final Map<String, Consumer<Consumer<Object>>> decodings = new LinkedHashMap<>();
+        decodings.put("googleBooksMaterialized", this::decodeGoogleBooksMaterialized);
+        decodings.put("googleBooksStreamed", this::decodeGoogleBooksStreamed);
+        decodings.put("itunesAlbumsMaterialized", this::decodeItunesAlbumsMaterialized);
+        decodings.put("itunesAlbumsStreamed", this::decodeItunesAlbumsStreamed);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final Consumer<Object> ignore = item -> { };
+        System.out.println();
+        decodings.forEach((name, decoding) -> {
+            // Including the few buffers that wrap the chunks of a response
+            final long bytes = allocatedBytes(threads, threadId, () -> decoding.accept(ignore));
+            System.out.printf("%s: %.0f bytes allocated per item%n", name, (double) bytes / NR_OF_ITEMS);
+        });
+    }
+
+    private static long allocatedBytes(final com.sun.management.ThreadMXBean threads, final long threadId,
+                                       final Runnable decoding) {
+        final int warmups = 10_000;
+        final int measured = 1_000;
+        for (int i = 0; i < warmups; i++) {
+            decoding.run();
+        }
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < measured; i++) {
+            decoding.run();
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / measured;
+    }
+
+    private Flux<DataBuffer> buffers(final byte[][] chunks) {
+        final List<DataBuffer> buffers = new ArrayList<>(chunks.length);
+        for (byte[] chunk : chunks) {
+            buffers.add(bufferFactory.wrap(chunk));
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+    private static byte[][] chunked(final byte[] body) {
+        final byte[][] chunks = new byte[(body.length + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(body, i * CHUNK_SIZE, Math.min(body.length, (i + 1) * CHUNK_SIZE));
+        }
+        return chunks;
+    }
+
+    private ByteArrayOutputStream join(final ByteArrayOutputStream joined, final DataBuffer chunk) {
+        final byte[] bytes = new byte[chunk.readableByteCount()];
+        chunk.read(bytes);
+        joined.write(bytes, 0, bytes.length);
+        return joined;
+    }
+
+    private <T> T readValue(final ByteArrayOutputStream joined, final Class<T> type) {
+        try {
+            return mapper.readValue(joined.toByteArray(), type);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readFixture(final String name) throws IOException {
+        try (InputStream in = UpstreamDecodingBenchmark.class.getResourceAsStream("/fixtures/" + name)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // The response objects the webservices used to bind to
+
+    public static class GoogleBookResponse {
+        public List<Item> items;
+
+        public static class Item {
+            public VolumeInfo volumeInfo;
+        }
+
+        public static class VolumeInfo {
+            public String title;
+            public Set<String> authors;
+        }
+    }
+
+    public static class ItunesAlbumResponse {
+        public List<Result> results;
+
+        public static class Result {
+            public String collectionName;
+            public String artistName;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.lindooren.springreactive.benchmarks.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line arguments like {@code --rps=200}, every argument has a default
+ */
+class Arguments {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Arguments(final String[] args) {
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+    }
+
+    String getString(final String name, final String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(final String name, final int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    long getLong(final String name, final long defaultValue) {
+        return values.containsKey(name) ? Long.parseLong(values.get(name)) : defaultValue;
+    }
+
+    double getDouble(final String name, final double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+}
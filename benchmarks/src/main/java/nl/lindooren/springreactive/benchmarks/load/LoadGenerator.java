@@ -0,0 +1,134 @@
+package nl.lindooren.springreactive.benchmarks.load;
+
+import nl.lindooren.springreactive.stats.ResponseTimeHistogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.http.client.HttpClient;
+import reactor.ipc.netty.http.client.HttpClientException;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the search at a constant rate (an open model: requests are sent whether or not earlier ones have been
+ * answered) and reports the throughput and latency percentiles every interval and for the whole run.
+ * <p>
+ * Latencies are measured from the moment a request was scheduled, not from when it was sent,
+ * so a saturated client or server shows up in the percentiles (no coordinated omission).
+ * <pre>
+ *     java -cp target/benchmarks.jar nl.lindooren.springreactive.benchmarks.load.LoadGenerator \
+ *         --url=http://localhost:8080/search/albumsAndBooks/ --queries=bicycle,road,wind \
+ *         --rps=200 --warmupSeconds=10 --durationSeconds=60
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final Duration REPORT_INTERVAL = Duration.ofSeconds(5);
+
+    private final HttpClient client;
+    private final String url;
+    private final String[] queries;
+    private final int maxInFlight;
+
+    // Only updated by the (serialized) results of the requests
+    private final ResponseTimeHistogram interval = new ResponseTimeHistogram();
+    private final ResponseTimeHistogram total = new ResponseTimeHistogram();
+    private final Map<String, Long> outcomes = new TreeMap<>();
+    private long notSent;
+    private boolean measuring;
+
+    public LoadGenerator(final String url, final String[] queries, final int maxInFlight) {
+        this.client = HttpClient.create(options -> options
+                .poolResources(PoolResources.fixed("load", maxInFlight)));
+        this.url = url;
+        this.queries = queries;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Blocks until the run is over
+     */
+    public void run(final int rps, final Duration warmup, final Duration duration) {
+        final long periodNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        final long nrOfRequests = (warmup.plus(duration).toNanos()) / periodNanos;
+        final long nrOfWarmupRequests = warmup.toNanos() / periodNanos;
+        final long start = System.nanoTime();
+        final long[] lastReport = {start};
+
+        Flux.interval(Duration.ofNanos(periodNanos))
+                .take(nrOfRequests)
+                // Requests that can't be sent because maxInFlight requests are waiting are counted
+                .onBackpressureDrop(tick -> notSent++)
+                .flatMap(tick -> request(queries[(int) (tick % queries.length)])
+                        .map(outcome -> new Result(tick, outcome, start + tick * periodNanos)), maxInFlight)
+                .doOnNext(result -> {
+                    if (!measuring && result.tick >= nrOfWarmupRequests) {
+                        measuring = true;
+                        interval.reset();
+                        lastReport[0] = System.nanoTime();
+                        System.out.println("Warmed up, measuring for " + duration.getSeconds() + "s");
+                    }
+                    record(result);
+                    if (System.nanoTime() - lastReport[0] >= REPORT_INTERVAL.toNanos()) {
+                        report("interval", interval, System.nanoTime() - lastReport[0]);
+                        interval.reset();
+                        lastReport[0] = System.nanoTime();
+                    }
+                })
+                .blockLast();
+
+        report("total", total, duration.toNanos());
+        System.out.println("outcomes: " + outcomes + ", not sent (client saturated): " + notSent);
+    }
+
+    private Mono<String> request(final String query) {
+        return client.get(url + query, request -> request.header("Accept", "application/json").send())
+                .flatMap(response -> response.receive().aggregate()
+                        .then(Mono.just(String.valueOf(response.status().code()))))
+                .onErrorResume(HttpClientException.class,
+                        e -> Mono.just(String.valueOf(e.status().code())))
+                .onErrorResume(e -> Mono.just(e.getClass().getSimpleName()));
+    }
+
+    private void record(final Result result) {
+        final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - result.scheduledAt);
+        interval.record(latencyMillis);
+        if (measuring) {
+            total.record(latencyMillis);
+            outcomes.merge(result.outcome, 1L, Long::sum);
+        }
+    }
+
+    private static void report(final String name, final ResponseTimeHistogram histogram, final long elapsedNanos) {
+        System.out.printf("%-8s %8.1f req/s  p50 %5d ms  p90 %5d ms  p99 %5d ms  p99.9 %5d ms  max %5d ms%n",
+                name, histogram.getTotalCount() * 1e9 / elapsedNanos,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax());
+    }
+
+    private static class Result {
+        private final long tick;
+        private final String outcome;
+        private final long scheduledAt;
+
+        private Result(final long tick, final String outcome, final long scheduledAt) {
+            this.tick = tick;
+            this.outcome = outcome;
+            this.scheduledAt = scheduledAt;
+        }
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(args);
+        new LoadGenerator(
+                arguments.getString("url", "http://localhost:8080/search/albumsAndBooks/"),
+                arguments.getString("queries", "bicycle,road,wind,blues,history").split(","),
+                arguments.getInt("maxInFlight", 1024))
+                .run(arguments.getInt("rps", 100),
+                        Duration.ofSeconds(arguments.getLong("warmupSeconds", 10)),
+                        Duration.ofSeconds(arguments.getLong("durationSeconds", 60)));
+    }
+}
@@ -0,0 +1,125 @@
+package nl.lindooren.springreactive.benchmarks.load;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.NettyContext;
+import reactor.ipc.netty.http.server.HttpServer;
+import reactor.ipc.netty.http.server.HttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stands in for the Google Books and iTunes webservices, serving the recorded responses
+ * (src/main/resources/fixtures) with latencies drawn from a log-normal distribution, a share of errors
+ * and a share of responses whose body drips in slowly.
+ * <pre>
+ *     java -cp target/benchmarks.jar nl.lindooren.springreactive.benchmarks.load.UpstreamStandIn \
+ *         --port=9090 --medianMillis=80 --p99Millis=600 --errorRate=0.01 --slowDripRate=0.01
+ * </pre>
+ * Point the application at it with
+ * {@code --upstream.books.baseUrl=http://localhost:9090 --upstream.albums.baseUrl=http://localhost:9090}.
+ */
+public class UpstreamStandIn {
+
+    // The z-score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    private final byte[] googleBooks;
+    private final byte[] itunesAlbums;
+    private final double mu;
+    private final double sigma;
+    private final double errorRate;
+    private final double slowDripRate;
+    private final int dripChunkSize;
+    private final Duration dripInterval;
+
+    /**
+     * @param medianMillis  the median latency (before the first byte of a response)
+     * @param p99Millis     the 99th percentile of the latency, at least the median
+     * @param errorRate     the share of responses that are a 503 (between 0 and 1)
+     * @param slowDripRate  the share of responses whose body is sent in chunks of dripChunkSize bytes,
+     *                      one every dripInterval
+     */
+    public UpstreamStandIn(final long medianMillis, final long p99Millis, final double errorRate,
+                           final double slowDripRate, final int dripChunkSize, final Duration dripInterval)
+            throws IOException {
+        if (medianMillis <= 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException("The p99 can't be less than the median, which has to be positive");
+        }
+        this.googleBooks = readFixture("google-books.json");
+        this.itunesAlbums = readFixture("itunes-albums.json");
+        this.mu = Math.log(medianMillis);
+        this.sigma = Math.log((double) p99Millis / medianMillis) / Z_99;
+        this.errorRate = errorRate;
+        this.slowDripRate = slowDripRate;
+        this.dripChunkSize = dripChunkSize;
+        this.dripInterval = dripInterval;
+    }
+
+    public NettyContext start(final int port) {
+        return HttpServer.create(port)
+                .newRouter(routes -> routes
+                        .get("/books/v1/volumes", (request, response) -> respond(response, googleBooks))
+                        .get("/search", (request, response) -> respond(response, itunesAlbums)))
+                .block();
+    }
+
+    private Mono<Void> respond(final HttpServerResponse response, final byte[] body) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Duration latency = Duration.ofMillis(Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+        final boolean error = random.nextDouble() < errorRate;
+        final boolean slowDrip = !error && random.nextDouble() < slowDripRate;
+        return Mono.delay(latency).then(Mono.defer(() -> {
+            if (error) {
+                return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).send().then();
+            }
+            response.header("Content-Type", "application/json;charset=UTF-8");
+            return slowDrip
+                    ? response.chunkedTransfer(true).sendByteArray(chunks(body).delayElements(dripInterval)).then()
+                    : response.header("Content-Length", String.valueOf(body.length))
+                    .sendByteArray(Mono.just(body)).then();
+        }));
+    }
+
+    private Flux<byte[]> chunks(final byte[] body) {
+        final List<byte[]> chunks = new ArrayList<>();
+        for (int offset = 0; offset < body.length; offset += dripChunkSize) {
+            chunks.add(Arrays.copyOfRange(body, offset, Math.min(body.length, offset + dripChunkSize)));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static byte[] readFixture(final String name) throws IOException {
+        try (InputStream in = UpstreamStandIn.class.getResourceAsStream("/fixtures/" + name)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = new Arguments(args);
+        UpstreamStandIn standIn = new UpstreamStandIn(
+                arguments.getLong("medianMillis", 80),
+                arguments.getLong("p99Millis", 600),
+                arguments.getDouble("errorRate", 0.01),
+                arguments.getDouble("slowDripRate", 0.01),
+                arguments.getInt("dripChunkSize", 512),
+                Duration.ofMillis(arguments.getLong("dripIntervalMillis", 100)));
+        NettyContext context = standIn.start(arguments.getInt("port", 9090));
+        System.out.println("Standing in for the webservices on " + context.address());
+        context.onClose().block();
+    }
+}
@@ -0,0 +1,46 @@
+package nl.lindooren.springreactive.apple;
+
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.MediaSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.util.Collections;
+
+/**
+ * Albums from iTunes, merged before books with an equal title
+ */
+@Service
+@Order(1)
+public class ItunesAlbumMediaSource implements MediaSource {
+
+    public static final String TYPE = "ALBUM";
+
+    private ItunesAlbumService itunesAlbumService;
+
+    @Autowired
+    public ItunesAlbumMediaSource(ItunesAlbumService itunesAlbumService) {
+        this.itunesAlbumService = itunesAlbumService;
+    }
+
+    @Override
+    public String getName() {
+        return ItunesAlbumServiceImpl.SERVICE_NAME;
+    }
+
+    @Override
+    public Flux<MediaItem> search(final String query, final int maxResults) {
+        return itunesAlbumService.searchAlbums(query, maxResults).map(this::convertToMediaItem);
+    }
+
+    @Override
+    public Flux<MediaItem> search(final String query, final int offset, final int maxResults, final int pageSize) {
+        return itunesAlbumService.searchAlbums(query, offset, maxResults, pageSize).map(this::convertToMediaItem);
+    }
+
+    private MediaItem convertToMediaItem(Album album) {
+        return new MediaItem(album.getTitle(), Collections.singleton(album.getAuthor()), TYPE);
+    }
+}
@@ -15,4 +15,14 @@ public interface ItunesAlbumService {
      * @return albums that match the given query string
      */
     Flux<Album> searchAlbums(final String query, final int maxResults);
+
+    /**
+     * @param query      Full-text search query string
+     * @param offset     the number of albums to skip
+     * @param maxResults the max number of albums to return
+     * @param pageSize   the number of albums to fetch per call
+     * @return albums from the offset on that match the given query string,
+     * a page is only fetched when its albums are requested
+     */
+    Flux<Album> searchAlbums(final String query, final int offset, final int maxResults, final int pageSize);
 }
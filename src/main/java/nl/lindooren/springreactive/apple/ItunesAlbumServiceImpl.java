@@ -1,78 +1,84 @@
 package nl.lindooren.springreactive.apple;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.Value;
+import nl.lindooren.springreactive.http.UpstreamCallRecorder;
+import nl.lindooren.springreactive.http.UpstreamPages;
+import nl.lindooren.springreactive.http.UpstreamWebClients;
+import nl.lindooren.springreactive.json.JsonProjection;
+import nl.lindooren.springreactive.json.ProjectedValues;
+import nl.lindooren.springreactive.json.StreamingJsonArrayDecoder;
+import nl.lindooren.springreactive.resilience.ConcurrencyLimiter;
+import nl.lindooren.springreactive.resilience.ConcurrencyLimiters;
+import nl.lindooren.springreactive.resilience.RequestHedger;
 import nl.lindooren.springreactive.stats.StatsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.json.Jackson2JsonDecoder;
 import org.springframework.stereotype.Service;
-import org.springframework.util.MimeType;
-import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
 
 @Service
 public class ItunesAlbumServiceImpl implements ItunesAlbumService {
 
     public static final String SERVICE_NAME = "albums";
+    // Itunes returns at most 200 results per call, and none beyond the first 200
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_OFFSET = 200;
+
+    private static final String COLLECTION_NAME = "collectionName";
+    private static final String ARTIST_NAME = "artistName";
+    /**
+     * Only the collection and artist name are read of the results.
+     * The body is decoded as is, so the legacy mime type Itunes uses for Json doesn't matter.
+     */
+    public static final StreamingJsonArrayDecoder<Album> DECODER = new StreamingJsonArrayDecoder<>(
+            JsonProjection.of("results", COLLECTION_NAME, ARTIST_NAME), ItunesAlbumServiceImpl::convertToAlbum);
 
     private WebClient webClient;
-    private StatsService statsService;
+    private UpstreamCallRecorder callRecorder;
+    private RequestHedger requestHedger;
+    private ConcurrencyLimiter concurrencyLimiter;
 
     @Autowired
-    public ItunesAlbumServiceImpl(ObjectMapper mapper, StatsService statsService) {
-        this.statsService = statsService;
-        // Itunes uses a legacy mime type for Json
-        ExchangeStrategies strategies = ExchangeStrategies.builder().codecs(clientCodecConfigurer ->
-            clientCodecConfigurer.customCodecs().decoder(
-                    new Jackson2JsonDecoder(mapper,
-                            new MimeType("text", "javascript", StandardCharsets.UTF_8)))
-        ).build();
-
-        webClient = WebClient.builder()
-                .exchangeStrategies(strategies)
-                .baseUrl("https://itunes.apple.com")
-                .build();
+    public ItunesAlbumServiceImpl(StatsService statsService, RequestHedger requestHedger,
+                                  UpstreamWebClients upstreamWebClients,
+                                  ConcurrencyLimiters concurrencyLimiters) {
+        this.callRecorder = new UpstreamCallRecorder(SERVICE_NAME, statsService);
+        this.requestHedger = requestHedger;
+        this.concurrencyLimiter = concurrencyLimiters.forWebservice(SERVICE_NAME);
+        webClient = upstreamWebClients.builder(SERVICE_NAME).build();
     }
 
     @Override
     public Flux<Album> searchAlbums(String query, int maxResults) {
-        final long startTime = System.currentTimeMillis();
-        return webClient.get()
-                .uri("search?term={query}&media=music&entity=album&country=NL&limit={maxResults}", query, maxResults)
-                .accept(new MediaType("text", "javascript", StandardCharsets.UTF_8))
-                .retrieve()
-                .bodyToMono(ItunesAlbumResponse.class)
-                .doOnNext(googleBookResponse ->
-                        statsService.notifyOfSuccessfulCall(SERVICE_NAME,
-                                Optional.of(System.currentTimeMillis() - startTime)))
-                .doOnError(throwable -> statsService.notifyOfFailedCall(SERVICE_NAME))
-                .flatMapIterable(response -> response.results.orElseGet(ArrayList::new))
-                .map(this::convertToAlbum);
+        return searchPage(query, 0, maxResults);
+    }
+
+    @Override
+    public Flux<Album> searchAlbums(String query, int offset, int maxResults, int pageSize) {
+        return UpstreamPages.fetch((pageOffset, size) -> searchPage(query, pageOffset, size),
+                offset, maxResults, Math.min(pageSize, MAX_PAGE_SIZE), MAX_OFFSET);
     }
 
-    private Album convertToAlbum(ItunesAlbumResponse.Result result) {
-        return new Album(result.getCollectionName(), result.getArtistName());
+    private Flux<Album> searchPage(String query, int offset, int maxResults) {
+        // Hedged calls are subject to the limit as well, they add to the load of the webservice
+        return requestHedger.hedge(SERVICE_NAME,
+                () -> concurrencyLimiter.limit(() -> call(query, offset, maxResults)));
     }
 
-    /**
-     * Using an inner class because we don't need to expose this to other services
-     * (and it's small), so it's ok to keep it here
-     */
-    @Value
-    private static class ItunesAlbumResponse {
-        private Optional<List<Result>> results;
+    private Flux<Album> call(String query, int offset, int maxResults) {
+        return callRecorder.record(() -> webClient.get()
+                        .uri("search?term={query}&media=music&entity=album&country=NL&offset={offset}&limit={maxResults}",
+                                query, offset, maxResults)
+                        .accept(new MediaType("text", "javascript", StandardCharsets.UTF_8))
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class),
+                DECODER::decode);
+    }
 
-        @Value
-        private static class Result {
-            private String collectionName;
-            private String artistName;
-        }
+    private static Album convertToAlbum(ProjectedValues result) {
+        return new Album(result.getString(COLLECTION_NAME), result.getString(ARTIST_NAME));
     }
 }
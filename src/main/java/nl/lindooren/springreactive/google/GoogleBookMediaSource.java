@@ -0,0 +1,44 @@
+package nl.lindooren.springreactive.google;
+
+import nl.lindooren.springreactive.search.MediaItem;
+import nl.lindooren.springreactive.search.MediaSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+/**
+ * Books from Google Books
+ */
+@Service
+@Order(2)
+public class GoogleBookMediaSource implements MediaSource {
+
+    public static final String TYPE = "BOOK";
+
+    private GoogleBookService googleBookService;
+
+    @Autowired
+    public GoogleBookMediaSource(GoogleBookService googleBookService) {
+        this.googleBookService = googleBookService;
+    }
+
+    @Override
+    public String getName() {
+        return GoogleBookServiceImpl.SERVICE_NAME;
+    }
+
+    @Override
+    public Flux<MediaItem> search(final String query, final int maxResults) {
+        return googleBookService.searchBooks(query, maxResults).map(this::convertToMediaItem);
+    }
+
+    @Override
+    public Flux<MediaItem> search(final String query, final int offset, final int maxResults, final int pageSize) {
+        return googleBookService.searchBooks(query, offset, maxResults, pageSize).map(this::convertToMediaItem);
+    }
+
+    private MediaItem convertToMediaItem(Book book) {
+        return new MediaItem(book.getTitle(), book.getAuthors(), TYPE);
+    }
+}
@@ -15,4 +15,14 @@ public interface GoogleBookService {
      * @return books that match the given query string
      */
     Flux<Book> searchBooks(final String query, final int maxResults);
+
+    /**
+     * @param query      Full-text search query string
+     * @param startIndex the index of the first book to return
+     * @param maxResults the max number of books to return
+     * @param pageSize   the number of books to fetch per call
+     * @return books from the start index on that match the given query string,
+     * a page is only fetched when its books are requested
+     */
+    Flux<Book> searchBooks(final String query, final int startIndex, final int maxResults, final int pageSize);
 }
@@ -1,67 +1,83 @@
 package nl.lindooren.springreactive.google;
 
-import lombok.Value;
+import nl.lindooren.springreactive.http.UpstreamCallRecorder;
+import nl.lindooren.springreactive.http.UpstreamPages;
+import nl.lindooren.springreactive.http.UpstreamWebClients;
+import nl.lindooren.springreactive.json.JsonProjection;
+import nl.lindooren.springreactive.json.ProjectedValues;
+import nl.lindooren.springreactive.json.StreamingJsonArrayDecoder;
+import nl.lindooren.springreactive.resilience.ConcurrencyLimiter;
+import nl.lindooren.springreactive.resilience.ConcurrencyLimiters;
+import nl.lindooren.springreactive.resilience.RequestHedger;
 import nl.lindooren.springreactive.stats.StatsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 
-import javax.annotation.PostConstruct;
 import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.util.HashSet;
 
 @Service
 public class GoogleBookServiceImpl implements GoogleBookService {
 
     public static final String SERVICE_NAME = "books";
+    // Google Books returns at most 40 volumes per call, and doesn't page (much) beyond a few hundred
+    private static final int MAX_PAGE_SIZE = 40;
+    private static final int MAX_START_INDEX = 400;
+
+    private static final String TITLE = "volumeInfo.title";
+    private static final String AUTHORS = "volumeInfo.authors";
+    /**
+     * Only the title and authors are read of the volumes, their descriptions, images, sale info etc. are skipped
+     */
+    public static final StreamingJsonArrayDecoder<Book> DECODER = new StreamingJsonArrayDecoder<>(
+            JsonProjection.of("items", TITLE, AUTHORS), GoogleBookServiceImpl::convertToBook);
 
     private WebClient webClient;
-    private StatsService statsService;
+    private UpstreamCallRecorder callRecorder;
+    private RequestHedger requestHedger;
+    private ConcurrencyLimiter concurrencyLimiter;
 
     @Autowired
-    public GoogleBookServiceImpl(StatsService statsService) {
-        this.statsService = statsService;
-        webClient = WebClient.create("https://www.googleapis.com");
+    public GoogleBookServiceImpl(StatsService statsService, RequestHedger requestHedger,
+                                 UpstreamWebClients upstreamWebClients,
+                                 ConcurrencyLimiters concurrencyLimiters) {
+        this.callRecorder = new UpstreamCallRecorder(SERVICE_NAME, statsService);
+        this.requestHedger = requestHedger;
+        this.concurrencyLimiter = concurrencyLimiters.forWebservice(SERVICE_NAME);
+        webClient = upstreamWebClients.builder(SERVICE_NAME).build();
     }
 
     @Override
     public Flux<Book> searchBooks(String query, int maxResults) {
-        final long startTime = System.currentTimeMillis();
-        return webClient.get()
-                .uri("/books/v1/volumes?q={query}&maxResults={maxResults}", query, maxResults)
-                .acceptCharset(StandardCharsets.UTF_8)
-                .retrieve()
-                .bodyToMono(GoogleBookResponse.class)
-                .doOnNext(googleBookResponse ->
-                        statsService.notifyOfSuccessfulCall(SERVICE_NAME,
-                                Optional.of(System.currentTimeMillis() - startTime)))
-                .doOnError(throwable -> statsService.notifyOfFailedCall(SERVICE_NAME))
-                .flatMapIterable(response -> response.items.orElseGet(ArrayList::new))
-                .map(this::convertToBook);
+        return searchPage(query, 0, maxResults);
     }
 
-    private Book convertToBook(GoogleBookResponse.Item item) {
-        return new Book(item.volumeInfo.getTitle(), item.volumeInfo.getAuthors().orElse(Collections.emptySet()));
+    @Override
+    public Flux<Book> searchBooks(String query, int startIndex, int maxResults, int pageSize) {
+        return UpstreamPages.fetch((offset, size) -> searchPage(query, offset, size),
+                startIndex, maxResults, Math.min(pageSize, MAX_PAGE_SIZE), MAX_START_INDEX);
     }
 
-    /**
-     * Using an inner class because we don't need to expose this to other services
-     * (and it's small), so it's ok to keep it here
-     */
-    @Value
-    private static class GoogleBookResponse {
-        private Optional<List<Item>> items;
+    private Flux<Book> searchPage(String query, int startIndex, int maxResults) {
+        // Hedged calls are subject to the limit as well, they add to the load of the webservice
+        return requestHedger.hedge(SERVICE_NAME,
+                () -> concurrencyLimiter.limit(() -> call(query, startIndex, maxResults)));
+    }
 
-        @Value
-        private static class Item {
-            private VolumeInfo volumeInfo;
+    private Flux<Book> call(String query, int startIndex, int maxResults) {
+        return callRecorder.record(() -> webClient.get()
+                        .uri("/books/v1/volumes?q={query}&startIndex={startIndex}&maxResults={maxResults}",
+                                query, startIndex, maxResults)
+                        .acceptCharset(StandardCharsets.UTF_8)
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class),
+                DECODER::decode);
+    }
 
-            @Value
-            private static class VolumeInfo {
-                private String title;
-                private Optional<Set<String>> authors;
-            }
-        }
+    private static Book convertToBook(ProjectedValues volume) {
+        return new Book(volume.getString(TITLE), new HashSet<>(volume.getStrings(AUTHORS)));
     }
 }
@@ -0,0 +1,77 @@
+package nl.lindooren.springreactive.http;
+
+import io.netty.channel.Channel;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Keeps track of the connections of a pool that are in use, the acquisitions that are waiting for a connection
+ * and the time it takes to acquire one. Acquisitions are rejected immediately when too many are waiting already.
+ */
+class InstrumentedChannelPool implements ChannelPool {
+
+    private final ChannelPool delegate;
+    private final PoolMetrics poolMetrics;
+    private final int maxPendingAcquires;
+
+    InstrumentedChannelPool(final ChannelPool delegate, final PoolMetrics poolMetrics, final int maxPendingAcquires) {
+        this.delegate = delegate;
+        this.poolMetrics = poolMetrics;
+        this.maxPendingAcquires = maxPendingAcquires;
+    }
+
+    @Override
+    public Future<Channel> acquire() {
+        return acquire(GlobalEventExecutor.INSTANCE.newPromise());
+    }
+
+    @Override
+    public Future<Channel> acquire(final Promise<Channel> promise) {
+        final long startTime = System.nanoTime();
+        if (poolMetrics.getPendingAcquires().incrementAndGet() > maxPendingAcquires) {
+            poolMetrics.getPendingAcquires().decrementAndGet();
+            poolMetrics.incrementCounter(PoolMetrics.ACQUIRE_FAILURES_COUNTER);
+            return promise.setFailure(new IllegalStateException(
+                    "Too many requests are waiting for a connection (" + maxPendingAcquires + ")"));
+        }
+        return delegate.acquire(promise).addListener(future -> {
+            poolMetrics.getPendingAcquires().decrementAndGet();
+            if (future.isSuccess()) {
+                poolMetrics.recordAcquireTime(System.nanoTime() - startTime);
+                poolMetrics.getInUse().incrementAndGet();
+                final UpstreamConnectionHandler handler = handlerOf((Channel) future.getNow());
+                if (handler != null) {
+                    handler.acquired();
+                }
+            } else {
+                poolMetrics.incrementCounter(PoolMetrics.ACQUIRE_FAILURES_COUNTER);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> release(final Channel channel) {
+        return release(channel, GlobalEventExecutor.INSTANCE.newPromise());
+    }
+
+    @Override
+    public Future<Void> release(final Channel channel, final Promise<Void> promise) {
+        poolMetrics.getInUse().decrementAndGet();
+        final UpstreamConnectionHandler handler = handlerOf(channel);
+        if (handler != null) {
+            handler.released();
+        }
+        return delegate.release(channel, promise);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private static UpstreamConnectionHandler handlerOf(final Channel channel) {
+        return channel.pipeline().get(UpstreamConnectionHandler.class);
+    }
+}
@@ -0,0 +1,80 @@
+package nl.lindooren.springreactive.http;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.timeout.IdleStateHandler;
+import reactor.ipc.netty.NettyPipeline;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The (fixed size) connection pools of one upstream webservice, instrumented with {@link PoolMetrics}.
+ * Every new connection gets an {@link UpstreamConnectionHandler} to limit the response size and evict it when idle.
+ */
+class InstrumentedPoolResources implements PoolResources {
+
+    private final PoolResources delegate;
+    private final PoolMetrics poolMetrics;
+    private final int maxPendingAcquires;
+    private final long idleTimeoutMillis;
+    private final long maxResponseBytes;
+    // There's a pool per remote address, selectOrCreate is called for every request
+    private final Map<ChannelPool, InstrumentedChannelPool> instrumentedPools = new ConcurrentHashMap<>();
+
+    InstrumentedPoolResources(final PoolResources delegate, final PoolMetrics poolMetrics,
+                              final int maxPendingAcquires, final long idleTimeoutMillis, final long maxResponseBytes) {
+        this.delegate = delegate;
+        this.poolMetrics = poolMetrics;
+        this.maxPendingAcquires = maxPendingAcquires;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxResponseBytes = maxResponseBytes;
+    }
+
+    @Override
+    public ChannelPool selectOrCreate(final SocketAddress address, final Supplier<? extends Bootstrap> bootstrap,
+                                      final Consumer<? super Channel> onChannelCreate, final EventLoopGroup group) {
+        final ChannelPool pool = delegate.selectOrCreate(address, bootstrap, channel -> {
+            onChannelCreate.accept(channel);
+            onNewConnection(channel);
+        }, group);
+        return instrumentedPools.computeIfAbsent(pool,
+                p -> new InstrumentedChannelPool(p, poolMetrics, maxPendingAcquires));
+    }
+
+    @Override
+    public void dispose() {
+        delegate.dispose();
+    }
+
+    private void onNewConnection(final Channel channel) {
+        poolMetrics.getOpen().incrementAndGet();
+        channel.closeFuture().addListener(future -> poolMetrics.getOpen().decrementAndGet());
+        final ChannelPipeline pipeline = channel.pipeline();
+        addAfterCodecs(pipeline, new UpstreamConnectionHandler(poolMetrics, maxResponseBytes));
+        addAfterCodecs(pipeline, new IdleStateHandler(0, 0, idleTimeoutMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Adds the handler right after the SSL handler and the HTTP codec (when the connection has them),
+     * so it handles decrypted, decoded messages
+     */
+    private static void addAfterCodecs(final ChannelPipeline pipeline, final ChannelHandler handler) {
+        if (pipeline.get(NettyPipeline.HttpCodec) != null) {
+            pipeline.addAfter(NettyPipeline.HttpCodec, null, handler);
+        } else if (pipeline.get(NettyPipeline.SslHandler) != null) {
+            pipeline.addAfter(NettyPipeline.SslHandler, null, handler);
+        } else {
+            pipeline.addFirst(handler);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package nl.lindooren.springreactive.http;
+
+import nl.lindooren.springreactive.stats.ResponseTimeHistogram;
+import nl.lindooren.springreactive.stats.StatsService;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Gauges of the connection pool of one upstream webservice, published through the {@link StatsService}.
+ * <p>
+ * The time it takes to acquire a connection is recorded per period, the gauges show the last complete period.
+ */
+class PoolMetrics {
+
+    static final String ACQUIRE_FAILURES_COUNTER = "connectionAcquireFailures";
+    static final String EVICTIONS_COUNTER = "connectionsEvicted";
+    static final String RESPONSES_TOO_LARGE_COUNTER = "responsesTooLarge";
+
+    private final String webserviceName;
+    private final StatsService statsService;
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger pendingAcquires = new AtomicInteger();
+    // Guarded by this, in microseconds (so acquisitions taking over a second are clamped)
+    private final ResponseTimeHistogram acquireTimes = new ResponseTimeHistogram();
+    private final ResponseTimeHistogram lastPeriodAcquireTimes = new ResponseTimeHistogram();
+
+    PoolMetrics(final String webserviceName, final StatsService statsService) {
+        this.webserviceName = webserviceName;
+        this.statsService = statsService;
+        statsService.registerGauge(webserviceName, "connectionsOpen", open::get);
+        statsService.registerGauge(webserviceName, "connectionsInUse", inUse::get);
+        statsService.registerGauge(webserviceName, "connectionsIdle", () -> Math.max(0, open.get() - inUse.get()));
+        statsService.registerGauge(webserviceName, "connectionPendingAcquires", pendingAcquires::get);
+        statsService.registerGauge(webserviceName, "connectionAcquireCount",
+                () -> readLastPeriod(ResponseTimeHistogram::getTotalCount));
+        statsService.registerGauge(webserviceName, "connectionAcquireP99Micros",
+                () -> readLastPeriod(histogram -> histogram.getValueAtPercentile(99)));
+        statsService.registerGauge(webserviceName, "connectionAcquireMaxMicros",
+                () -> readLastPeriod(ResponseTimeHistogram::getMax));
+    }
+
+    AtomicInteger getOpen() {
+        return open;
+    }
+
+    AtomicInteger getInUse() {
+        return inUse;
+    }
+
+    AtomicInteger getPendingAcquires() {
+        return pendingAcquires;
+    }
+
+    synchronized void recordAcquireTime(final long nanos) {
+        acquireTimes.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void incrementCounter(final String counterName) {
+        statsService.incrementCounter(webserviceName, counterName);
+    }
+
+    /**
+     * Closes the current period
+     */
+    synchronized void rotate() {
+        lastPeriodAcquireTimes.reset();
+        lastPeriodAcquireTimes.add(acquireTimes);
+        acquireTimes.reset();
+    }
+
+    private synchronized long readLastPeriod(final ToLongFunction<ResponseTimeHistogram> gauge) {
+        return gauge.applyAsLong(lastPeriodAcquireTimes);
+    }
+}
@@ -0,0 +1,107 @@
+package nl.lindooren.springreactive.http;
+
+import nl.lindooren.springreactive.stats.CallDeadline;
+import nl.lindooren.springreactive.stats.CallOutcome;
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Reports every call to a webservice to the {@link StatsService} exactly once: how it ended (see {@link CallOutcome}),
+ * the time from the subscription to the first bytes of the body and to its end, and the size of the body.
+ * <p>
+ * Times are measured with {@link System#nanoTime()} from the moment the call is subscribed to (not when it's
+ * assembled), so every (hedged) call measures its own time. A call that is cancelled at or after the
+ * {@link CallDeadline} of its subscriber is reported as a time-out.
+ */
+public class UpstreamCallRecorder {
+
+    private final String webserviceName;
+    private final StatsService statsService;
+
+    public UpstreamCallRecorder(final String webserviceName, final StatsService statsService) {
+        this.webserviceName = webserviceName;
+        this.statsService = statsService;
+    }
+
+    /**
+     * @param call    the body of the response of the call
+     * @param decoder decodes the body, so errors while decoding count as errors of the call
+     * @return the decoded body
+     */
+    public <T> Flux<T> record(final Supplier<Flux<DataBuffer>> call,
+                              final Function<Flux<DataBuffer>, Flux<T>> decoder) {
+        return Mono.subscriberContext().flatMapMany(context -> {
+            final Recording recording = new Recording(context);
+            return decoder.apply(call.get().doOnNext(recording::onBuffer))
+                    .doOnComplete(recording::onComplete)
+                    .doOnError(recording::onError)
+                    .doOnCancel(recording::onCancel);
+        });
+    }
+
+    private class Recording {
+        private final Context context;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean reported = new AtomicBoolean();
+        // Only written by the signals of the body (which are serialized), read by a cancellation as well
+        private volatile long firstByteAt = -1;
+        private volatile long payloadBytes;
+
+        private Recording(final Context context) {
+            this.context = context;
+        }
+
+        private void onBuffer(final DataBuffer buffer) {
+            if (firstByteAt < 0) {
+                firstByteAt = System.nanoTime();
+            }
+            payloadBytes += buffer.readableByteCount();
+        }
+
+        private void onComplete() {
+            report(CallOutcome.SUCCESS, System.nanoTime());
+        }
+
+        private void onError(final Throwable throwable) {
+            if (throwable instanceof WebClientResponseException) {
+                report(CallOutcome.HTTP_ERROR, System.nanoTime());
+            } else if (throwable instanceof TimeoutException) {
+                report(CallOutcome.TIMEOUT, System.nanoTime());
+            } else {
+                report(CallOutcome.ERROR, System.nanoTime());
+            }
+        }
+
+        private void onCancel() {
+            final long now = System.nanoTime();
+            report(CallDeadline.hasPassed(context, now) ? CallOutcome.TIMEOUT : CallOutcome.CANCELLED, now);
+        }
+
+        private void report(final CallOutcome outcome, final long end) {
+            // A cancellation can race with the end of the response
+            if (!reported.compareAndSet(false, true)) {
+                return;
+            }
+            statsService.notifyOfCall(new WebserviceCallEvent(webserviceName, outcome,
+                    outcome == CallOutcome.SUCCESS ? Optional.of(toMillis(end - start)) : Optional.empty(),
+                    firstByteAt < 0 ? Optional.empty() : Optional.of(toMillis(firstByteAt - start)),
+                    payloadBytes));
+        }
+
+        private long toMillis(final long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
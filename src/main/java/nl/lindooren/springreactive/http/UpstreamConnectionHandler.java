@@ -0,0 +1,72 @@
+package nl.lindooren.springreactive.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Added to every connection of an upstream pool, right after the SSL handler and the HTTP codec
+ * (before any decompression), so it sees the decrypted response as (parts of) HTTP messages.
+ * <ul>
+ * <li>Closes the connection when the bytes of the body received for one request exceed the limit
+ * (the size of the headers is limited by the codec)</li>
+ * <li>Closes (evicts) the connection when it has been idle in the pool for too long
+ * (following an {@link io.netty.handler.timeout.IdleStateHandler} that signals when there was no traffic)</li>
+ * </ul>
+ * One request is made at a time on a connection, so the bytes received between acquiring
+ * and releasing the connection belong to one response (including its headers).
+ */
+class UpstreamConnectionHandler extends ChannelDuplexHandler {
+
+    private final PoolMetrics poolMetrics;
+    private final long maxResponseBytes;
+    private volatile boolean inUse;
+    // Incremented on the event loop of the connection, reset when the connection is acquired
+    private volatile long bytesReceived;
+
+    UpstreamConnectionHandler(final PoolMetrics poolMetrics, final long maxResponseBytes) {
+        this.poolMetrics = poolMetrics;
+        this.maxResponseBytes = maxResponseBytes;
+    }
+
+    void acquired() {
+        bytesReceived = 0;
+        inUse = true;
+    }
+
+    void released() {
+        inUse = false;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        final ByteBuf content = msg instanceof ByteBufHolder ? ((ByteBufHolder) msg).content()
+                : msg instanceof ByteBuf ? (ByteBuf) msg : null;
+        if (content != null) {
+            bytesReceived += content.readableBytes();
+            if (bytesReceived > maxResponseBytes) {
+                ReferenceCountUtil.release(msg);
+                poolMetrics.incrementCounter(PoolMetrics.RESPONSES_TOO_LARGE_COUNTER);
+                ctx.fireExceptionCaught(new TooLongFrameException("The response exceeds " + maxResponseBytes + " bytes"));
+                ctx.close();
+                return;
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.ALL_IDLE && !inUse) {
+            poolMetrics.incrementCounter(PoolMetrics.EVICTIONS_COUNTER);
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+}
@@ -0,0 +1,77 @@
+package nl.lindooren.springreactive.http;
+
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * Pages through the results of a webservice as they're requested, so a subscriber that only takes
+ * the first results pays for one call however deep the result set is.
+ * <p>
+ * A page is requested (by {@link Flux#flatMapIterable(java.util.function.Function, int)}) when all items of the
+ * page before it have been requested. To hide the latency of the calls, {@link Flux#concatMap(java.util.function.Function, int)}
+ * fetches one page ahead: it subscribes to the next page as soon as the current one is emitted. That page is
+ * only fetched when the current page is full, a page with less items than were asked for is the last one.
+ */
+public final class UpstreamPages {
+
+    /**
+     * Fetches one page of a webservice
+     */
+    @FunctionalInterface
+    public interface PageFetcher<T> {
+        /**
+         * @return at most size items, starting at the given offset
+         */
+        Flux<T> fetch(final int offset, final int size);
+    }
+
+    private UpstreamPages() {
+    }
+
+    /**
+     * @param fetcher    fetches a page
+     * @param offset     the offset of the first item
+     * @param maxResults the max number of items, the last page is only as large as needed to reach it
+     * @param pageSize   the number of items of a (full) page
+     * @param maxOffset  no items are fetched at or beyond this offset, the webservice wouldn't return them anyway
+     * @return at most maxResults items from the offset on, fetched a page at a time
+     */
+    public static <T> Flux<T> fetch(final PageFetcher<T> fetcher, final int offset, final int maxResults,
+                                    final int pageSize, final int maxOffset) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size should be positive");
+        }
+        final int end = (int) Math.min((long) offset + maxResults, maxOffset);
+        final int nrOfPages = end <= offset ? 0 : (end - offset + pageSize - 1) / pageSize;
+        return Flux.range(0, nrOfPages)
+                .map(page -> new Page<T>(offset + page * pageSize, Math.min(pageSize, end - offset - page * pageSize)))
+                .concatMap(page -> fetcher.fetch(page.offset, page.size).collectList().map(page::withItems), 1)
+                .takeUntil(Page::isLast)
+                .flatMapIterable(page -> page.items, 1);
+    }
+
+    private static class Page<T> {
+        private final int offset;
+        private final int size;
+        private final List<T> items;
+
+        private Page(final int offset, final int size) {
+            this(offset, size, null);
+        }
+
+        private Page(final int offset, final int size, final List<T> items) {
+            this.offset = offset;
+            this.size = size;
+            this.items = items;
+        }
+
+        private Page<T> withItems(final List<T> items) {
+            return new Page<>(offset, size, items);
+        }
+
+        private boolean isLast() {
+            return items.size() < size;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package nl.lindooren.springreactive.http;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.ipc.netty.resources.PoolResources;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Creates the {@link WebClient}s of the upstream webservices, each with a dedicated, sized connection pool.
+ * <p>
+ * The clients are configured with the properties {@code upstream.<webservice name>.*},
+ * falling back to {@code upstream.defaults.*} (see application.properties).
+ * Only the base URL ({@code upstream.<webservice name>.baseUrl}) has no default, so a webservice can be
+ * replaced by a stand-in (see the load test in the benchmarks module).
+ * The gauges and counters of the pools are published through the {@link StatsService}.
+ */
+@Slf4j
+@Service
+public class UpstreamWebClients {
+
+    /**
+     * The period over which the time to acquire a connection is reported
+     */
+    private static final Duration POOL_METRICS_PERIOD = Duration.ofSeconds(10);
+
+    private final StatsService statsService;
+    private final Environment environment;
+    private final List<PoolResources> pools = new CopyOnWriteArrayList<>();
+    private final List<Disposable> poolMetricsRotations = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public UpstreamWebClients(StatsService statsService, Environment environment) {
+        this.statsService = statsService;
+        this.environment = environment;
+    }
+
+    /**
+     * Meant to be called once per webservice, every call creates a new connection pool
+     *
+     * @return a builder of a client with the base URL and connector of the given webservice configured
+     */
+    public WebClient.Builder builder(final String webserviceName) {
+        final int maxConnections = getProperty(webserviceName, "maxConnections", Integer.class);
+        final PoolMetrics poolMetrics = new PoolMetrics(webserviceName, statsService);
+        final PoolResources pool = new InstrumentedPoolResources(
+                PoolResources.fixed(webserviceName, maxConnections,
+                        getProperty(webserviceName, "acquireTimeoutMillis", Long.class)),
+                poolMetrics,
+                getProperty(webserviceName, "maxPendingAcquires", Integer.class),
+                getProperty(webserviceName, "idleTimeoutMillis", Long.class),
+                getProperty(webserviceName, "maxResponseBytes", Long.class));
+        pools.add(pool);
+        poolMetricsRotations.add(Flux.interval(POOL_METRICS_PERIOD).subscribe(tick -> poolMetrics.rotate()));
+
+        final boolean compression = getProperty(webserviceName, "compression", Boolean.class);
+        final int connectTimeoutMillis = getProperty(webserviceName, "connectTimeoutMillis", Integer.class);
+        final boolean keepAlive = getProperty(webserviceName, "keepAlive", Boolean.class);
+        final Duration responseTimeout = Duration.ofMillis(
+                getProperty(webserviceName, "responseTimeoutMillis", Long.class));
+        log.info("Created a pool of max {} connections for webservice: {}", maxConnections, webserviceName);
+
+        return WebClient.builder()
+                .baseUrl(environment.getRequiredProperty("upstream." + webserviceName + ".baseUrl"))
+                .clientConnector(new ReactorClientHttpConnector(options -> options
+                        .poolResources(pool)
+                        // Asks for gzip and decompresses the response if the webservice complies
+                        .compression(compression)
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                        .option(ChannelOption.SO_KEEPALIVE, keepAlive)))
+                // Until the response (headers) has been received, reading the body is bound by the caller
+                .filter((request, next) -> next.exchange(request).timeout(responseTimeout));
+    }
+
+    @PreDestroy
+    private void dispose() {
+        poolMetricsRotations.forEach(Disposable::dispose);
+        pools.forEach(PoolResources::dispose);
+    }
+
+    private <T> T getProperty(final String webserviceName, final String key, final Class<T> type) {
+        final T value = environment.getProperty("upstream." + webserviceName + "." + key, type);
+        return value != null ? value : environment.getRequiredProperty("upstream.defaults." + key, type);
+    }
+}
@@ -0,0 +1,79 @@
+package nl.lindooren.springreactive.json;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields to read of the elements of an array in a JSON document, everything else is skipped.
+ * <p>
+ * E.g. {@code JsonProjection.of("items", "volumeInfo.title", "volumeInfo.authors")} reads the title and authors
+ * of the volume info of every element of the {@code items} array of the root object.
+ * A field is either a string (or other scalar) or an array of them.
+ */
+public class JsonProjection {
+
+    private final String arrayField;
+    private final Map<String, Integer> slots = new HashMap<>();
+    // The fields of an element as a tree, so a field name can be matched while parsing without building its path
+    private final Node root = new Node();
+
+    private JsonProjection(final String arrayField, final List<String> paths) {
+        this.arrayField = arrayField;
+        for (final String path : paths) {
+            Node node = root;
+            for (final String name : path.split("\\.")) {
+                node = node.children.computeIfAbsent(name, n -> new Node());
+            }
+            node.slot = slots.size();
+            slots.put(path, node.slot);
+        }
+    }
+
+    /**
+     * @param arrayField the field of the root object holding the array
+     * @param paths      of the fields to read of every element, nested fields separated by a dot
+     */
+    public static JsonProjection of(final String arrayField, final String... paths) {
+        return new JsonProjection(arrayField, Arrays.asList(paths));
+    }
+
+    String getArrayField() {
+        return arrayField;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    int getNrOfFields() {
+        return slots.size();
+    }
+
+    int slotOf(final String path) {
+        final Integer slot = slots.get(path);
+        if (slot == null) {
+            throw new IllegalArgumentException("Not part of the projection: " + path);
+        }
+        return slot;
+    }
+
+    static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        // The index of the value of a leaf, -1 for an object
+        private int slot = -1;
+
+        Node child(final String name) {
+            return children.get(name);
+        }
+
+        boolean isLeaf() {
+            return slot >= 0;
+        }
+
+        int getSlot() {
+            return slot;
+        }
+    }
+}
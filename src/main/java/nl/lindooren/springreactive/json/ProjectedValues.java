@@ -0,0 +1,52 @@
+package nl.lindooren.springreactive.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The values of the projected fields of one element
+ */
+public class ProjectedValues {
+
+    private final JsonProjection projection;
+    // A String, a List of Strings or null per field
+    private final Object[] values;
+
+    ProjectedValues(final JsonProjection projection) {
+        this.projection = projection;
+        this.values = new Object[projection.getNrOfFields()];
+    }
+
+    void set(final int slot, final String value) {
+        values[slot] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    void add(final int slot, final String value) {
+        if (!(values[slot] instanceof List)) {
+            values[slot] = new ArrayList<String>();
+        }
+        ((List<String>) values[slot]).add(value);
+    }
+
+    /**
+     * @return the value of the field, null if it's absent (or not a scalar)
+     */
+    public String getString(final String path) {
+        final Object value = values[projection.slotOf(path)];
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * @return the values of the array field, empty if it's absent
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getStrings(final String path) {
+        final Object value = values[projection.slotOf(path)];
+        if (value instanceof List) {
+            return (List<String>) value;
+        }
+        return value instanceof String ? Collections.singletonList((String) value) : Collections.emptyList();
+    }
+}
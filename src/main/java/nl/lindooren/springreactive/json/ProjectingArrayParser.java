@@ -0,0 +1,163 @@
+package nl.lindooren.springreactive.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking parser of one JSON document, fed with chunks of bytes as they arrive.
+ * Walks the tokens of the projected array and hands over the values of every element as soon as it's complete.
+ * <p>
+ * Fields outside the projection are skipped token by token: their names are canonicalized by the parser and
+ * their values are never turned into Strings, so skipping doesn't allocate.
+ * Not thread safe, meant to be used by one subscription.
+ */
+class ProjectingArrayParser {
+
+    private static final int NOT_COLLECTING = -1;
+
+    private final JsonProjection projection;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    // The nesting depth of the current token, the root object is at depth 1
+    private int depth;
+    private boolean arrayFieldFound;
+    // The depth of the projected array, 0 when not in it
+    private int arrayDepth;
+    // The node of the projection per depth within an element, null when the subtree is skipped
+    private JsonProjection.Node[] nodes = new JsonProjection.Node[8];
+    // The node of the field name that was just read, null when the value is skipped
+    private JsonProjection.Node pending;
+    // The depth of the array (of a projected field) whose values are collected
+    private int collectingDepth = NOT_COLLECTING;
+    private int collectingSlot;
+    private ProjectedValues values;
+
+    ProjectingArrayParser(final JsonFactory jsonFactory, final JsonProjection projection) throws IOException {
+        this.projection = projection;
+        this.parser = jsonFactory.createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Parses the given chunk, the array may be reused after this call
+     *
+     * @param onElement receives the values of every element that was completed by this chunk
+     */
+    void feed(final byte[] chunk, final int length, final Consumer<ProjectedValues> onElement) throws IOException {
+        feeder.feedInput(chunk, 0, length);
+        parse(onElement);
+    }
+
+    /**
+     * Signals the end of the document
+     *
+     * @throws IOException when the document is incomplete
+     */
+    void endOfInput(final Consumer<ProjectedValues> onElement) throws IOException {
+        feeder.endOfInput();
+        parse(onElement);
+        if (depth != 0) {
+            throw new IOException("Unexpected end of the JSON document");
+        }
+        parser.close();
+    }
+
+    private void parse(final Consumer<ProjectedValues> onElement) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT:
+                    startObject();
+                    break;
+                case END_OBJECT:
+                    if (arrayDepth > 0 && depth == arrayDepth + 1 && values != null) {
+                        onElement.accept(values);
+                        values = null;
+                    }
+                    depth--;
+                    break;
+                case START_ARRAY:
+                    startArray();
+                    break;
+                case END_ARRAY:
+                    if (depth == collectingDepth) {
+                        collectingDepth = NOT_COLLECTING;
+                    } else if (depth == arrayDepth) {
+                        arrayDepth = 0;
+                    }
+                    depth--;
+                    break;
+                case FIELD_NAME:
+                    if (depth == 1) {
+                        arrayFieldFound = projection.getArrayField().equals(parser.getCurrentName());
+                    } else if (isInElement()) {
+                        final JsonProjection.Node node = nodes[depth];
+                        pending = node == null ? null : node.child(parser.getCurrentName());
+                    }
+                    break;
+                case VALUE_NULL:
+                    // An absent value
+                    pending = null;
+                    break;
+                default:
+                    scalar();
+            }
+        }
+    }
+
+    private boolean isInElement() {
+        return arrayDepth > 0 && depth > arrayDepth && values != null;
+    }
+
+    private void startObject() {
+        depth++;
+        ensureCapacity();
+        if (arrayDepth > 0 && depth == arrayDepth + 1) {
+            values = new ProjectedValues(projection);
+            nodes[depth] = projection.getRoot();
+        } else if (isInElement()) {
+            nodes[depth] = pending != null && !pending.isLeaf() ? pending : null;
+        }
+        pending = null;
+    }
+
+    private void startArray() {
+        depth++;
+        ensureCapacity();
+        if (arrayDepth == 0 && depth == 2 && arrayFieldFound) {
+            arrayDepth = depth;
+        } else if (isInElement()) {
+            if (pending != null && pending.isLeaf() && collectingDepth == NOT_COLLECTING) {
+                collectingDepth = depth;
+                collectingSlot = pending.getSlot();
+            }
+            nodes[depth] = null;
+        }
+        pending = null;
+    }
+
+    private void scalar() throws IOException {
+        if (!isInElement()) {
+            return;
+        }
+        if (depth == collectingDepth) {
+            values.add(collectingSlot, parser.getText());
+        } else if (pending != null && pending.isLeaf()) {
+            values.set(pending.getSlot(), parser.getText());
+        }
+        pending = null;
+    }
+
+    private void ensureCapacity() {
+        if (depth >= nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        }
+    }
+}
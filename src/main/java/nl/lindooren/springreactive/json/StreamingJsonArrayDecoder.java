@@ -0,0 +1,95 @@
+package nl.lindooren.springreactive.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Decodes the elements of an array in a JSON response body while it's being received,
+ * instead of materializing the whole document first.
+ * Only the fields of the {@link JsonProjection} are read, every element is emitted as soon as it's complete.
+ *
+ * @param <T> the type an element is converted to
+ */
+public class StreamingJsonArrayDecoder<T> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonProjection projection;
+    private final Function<ProjectedValues, T> converter;
+
+    public StreamingJsonArrayDecoder(final JsonProjection projection, final Function<ProjectedValues, T> converter) {
+        this.projection = projection;
+        this.converter = converter;
+    }
+
+    /**
+     * @param body the response body, the buffers are released once parsed
+     * @return the converted elements, or a {@link DecodingException} when the body isn't valid JSON
+     */
+    public Flux<T> decode(final Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            final Decoding decoding;
+            try {
+                decoding = new Decoding(new ProjectingArrayParser(JSON_FACTORY, projection));
+            } catch (IOException e) {
+                return Flux.error(new DecodingException("Could not create a JSON parser", e));
+            }
+            return body
+                    .concatMapIterable(decoding::parse)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(decoding.endOfInput())));
+        });
+    }
+
+    /**
+     * The state of one decoding: the chunks are copied into one (growing) array and the elements of a chunk are
+     * collected in one list, both reused for every chunk. That's safe as concatMapIterable only maps the next
+     * chunk once all elements of the previous one have been emitted.
+     */
+    private class Decoding {
+        private final ProjectingArrayParser parser;
+        private final List<T> elements = new ArrayList<>();
+        private final Consumer<ProjectedValues> onElement = values -> elements.add(converter.apply(values));
+        // Sized by the first chunk, only grows for a larger one
+        private byte[] chunk = new byte[0];
+
+        private Decoding(final ProjectingArrayParser parser) {
+            this.parser = parser;
+        }
+
+        private List<T> parse(final DataBuffer buffer) {
+            elements.clear();
+            try {
+                final int length = buffer.readableByteCount();
+                if (length > chunk.length) {
+                    chunk = new byte[Math.max(length, chunk.length * 2)];
+                }
+                buffer.read(chunk, 0, length);
+                parser.feed(chunk, length, onElement);
+            } catch (IOException e) {
+                throw new DecodingException("Invalid JSON: " + e.getMessage(), e);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            return elements;
+        }
+
+        private List<T> endOfInput() {
+            elements.clear();
+            try {
+                parser.endOfInput(onElement);
+            } catch (IOException e) {
+                throw new DecodingException("Invalid JSON: " + e.getMessage(), e);
+            }
+            return elements;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package nl.lindooren.springreactive.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.lindooren.springreactive.stats.StatsService;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker of one upstream webservice.
+ * <ul>
+ * <li>CLOSED: all calls are permitted, the outcome of the last calls is kept track of.
+ * When too many of them failed the circuit opens</li>
+ * <li>OPEN: no call is permitted (the caller should fall back immediately) until the open duration has passed</li>
+ * <li>HALF_OPEN: a limited number of probe calls is permitted. When they all succeed the circuit closes again,
+ * when one of them fails it opens again</li>
+ * </ul>
+ * Permissions are acquired lock-free by any thread, outcomes are expected from one thread at a time
+ * (the event stream of the {@link StatsService}).
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String webserviceName;
+    private final StatsService statsService;
+    private final double failureRateThreshold;
+    private final long openDurationMillis;
+    private final int nrOfProbes;
+    private final LongSupplier clock;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    // Only the thread that moves it on (compare and set) hands out new probe permits
+    private final AtomicLong stateChangedAt = new AtomicLong();
+    private final AtomicInteger probePermits = new AtomicInteger();
+
+    // The outcome of the last calls while closed, only touched by the thread reporting outcomes
+    private final boolean[] lastOutcomes;
+    private int nextOutcome;
+    private int nrOfOutcomes;
+    private int nrOfFailures;
+    private final AtomicInteger successfulProbes = new AtomicInteger();
+
+    /**
+     * @param failureRateThreshold percentage of the last calls that has to fail to open the circuit
+     * @param nrOfCalls            the number of last calls to determine the failure rate over
+     *                             (the circuit doesn't open before this number of calls was made)
+     * @param openDurationMillis   how long the circuit stays open before probing the webservice again
+     * @param nrOfProbes           the number of calls permitted while half open
+     */
+    public CircuitBreaker(final String webserviceName, final StatsService statsService,
+                          final double failureRateThreshold, final int nrOfCalls,
+                          final long openDurationMillis, final int nrOfProbes, final LongSupplier clock) {
+        this.webserviceName = webserviceName;
+        this.statsService = statsService;
+        this.failureRateThreshold = failureRateThreshold;
+        this.lastOutcomes = new boolean[nrOfCalls];
+        this.openDurationMillis = openDurationMillis;
+        this.nrOfProbes = nrOfProbes;
+        this.clock = clock;
+        this.stateChangedAt.set(clock.getAsLong());
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return the results of the call when permitted,
+     * otherwise a {@link CircuitBreakerOpenException} without calling the webservice
+     */
+    public <T> Flux<T> protect(final Supplier<Flux<T>> call) {
+        return Flux.defer(() -> tryAcquirePermission()
+                ? call.get()
+                : Flux.error(new CircuitBreakerOpenException(webserviceName)));
+    }
+
+    public boolean tryAcquirePermission() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN: {
+                final long openedAt = stateChangedAt.get();
+                final long now = clock.getAsLong();
+                if (now - openedAt < openDurationMillis) {
+                    return false;
+                }
+                if (stateChangedAt.compareAndSet(openedAt, now)) {
+                    probePermits.set(nrOfProbes);
+                    transition(State.OPEN, State.HALF_OPEN);
+                }
+                return tryAcquirePermission();
+            }
+            default: {
+                if (probePermits.getAndDecrement() > 0) {
+                    return true;
+                }
+                // The outcome of a probe might never be reported (e.g. when it was cancelled), so don't wait forever
+                final long probingSince = stateChangedAt.get();
+                final long now = clock.getAsLong();
+                if (now - probingSince >= openDurationMillis && stateChangedAt.compareAndSet(probingSince, now)) {
+                    probePermits.set(nrOfProbes);
+                    return probePermits.getAndDecrement() > 0;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reports the outcome of a call to the webservice
+     */
+    public void onCallCompleted(final boolean success) {
+        switch (state.get()) {
+            case CLOSED:
+                recordOutcome(success);
+                if (nrOfOutcomes == lastOutcomes.length
+                        && nrOfFailures * 100.0 / nrOfOutcomes >= failureRateThreshold
+                        && transition(State.CLOSED, State.OPEN)) {
+                    log.warn("Opened the circuit of the {} service, {} of the last {} calls failed",
+                            webserviceName, nrOfFailures, nrOfOutcomes);
+                }
+                break;
+            case HALF_OPEN:
+                if (!success) {
+                    transition(State.HALF_OPEN, State.OPEN);
+                } else if (successfulProbes.incrementAndGet() >= nrOfProbes && transition(State.HALF_OPEN, State.CLOSED)) {
+                    log.info("Closed the circuit of the {} service", webserviceName);
+                }
+                break;
+            default:
+                // Late outcome of a call that was made before the circuit opened
+                break;
+        }
+    }
+
+    private void recordOutcome(final boolean success) {
+        if (nrOfOutcomes == lastOutcomes.length) {
+            // The oldest outcome makes room for this one
+            nrOfFailures -= lastOutcomes[nextOutcome] ? 0 : 1;
+        } else {
+            nrOfOutcomes++;
+        }
+        lastOutcomes[nextOutcome] = success;
+        nrOfFailures += success ? 0 : 1;
+        nextOutcome = (nextOutcome + 1) % lastOutcomes.length;
+    }
+
+    private boolean transition(final State from, final State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        stateChangedAt.set(clock.getAsLong());
+        if (to == State.OPEN) {
+            // Left over from probing, a caller that still saw the circuit half open mustn't get them
+            probePermits.set(0);
+        }
+        if (to == State.CLOSED) {
+            nrOfOutcomes = 0;
+            nrOfFailures = 0;
+            nextOutcome = 0;
+        }
+        successfulProbes.set(0);
+        statsService.notifyOfCircuitBreakerStateChange(webserviceName, from.name(), to.name());
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package nl.lindooren.springreactive.resilience;
+
+/**
+ * Signals that a call to a webservice wasn't made because its circuit is open
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    public CircuitBreakerOpenException(final String webserviceName) {
+        super("The circuit of the " + webserviceName + " service is open");
+    }
+}
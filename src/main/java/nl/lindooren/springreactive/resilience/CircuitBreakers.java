@@ -0,0 +1,56 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.CallOutcome;
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link CircuitBreaker}s of all upstream webservices, created on first use.
+ * <p>
+ * The breakers are fed by the same success and failure events that go into the {@link StatsService},
+ * so they are consistent with the stats and no extra bookkeeping is needed at the call sites.
+ */
+@Service
+public class CircuitBreakers {
+
+    private final StatsService statsService;
+    private final double failureRateThreshold;
+    private final int nrOfCalls;
+    private final long openDurationMillis;
+    private final int nrOfProbes;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CircuitBreakers(StatsService statsService,
+                           @Value("${resilience.circuitBreaker.failureRateThreshold}") double failureRateThreshold,
+                           @Value("${resilience.circuitBreaker.nrOfCalls}") int nrOfCalls,
+                           @Value("${resilience.circuitBreaker.openDurationMillis}") long openDurationMillis,
+                           @Value("${resilience.circuitBreaker.nrOfProbes}") int nrOfProbes) {
+        this.statsService = statsService;
+        this.failureRateThreshold = failureRateThreshold;
+        this.nrOfCalls = nrOfCalls;
+        this.openDurationMillis = openDurationMillis;
+        this.nrOfProbes = nrOfProbes;
+    }
+
+    @PostConstruct
+    private void init() {
+        // The event stream is fed by a single thread, which is what the breakers expect of their outcomes
+        statsService.getEventStreamForAllWebservices()
+                .ofType(WebserviceCallEvent.class)
+                .filter(event -> event.getOutcome() != CallOutcome.CANCELLED)
+                .subscribe(event -> forWebservice(event.getWebserviceName()).onCallCompleted(event.isSuccess()));
+    }
+
+    public CircuitBreaker forWebservice(final String webserviceName) {
+        return circuitBreakers.computeIfAbsent(webserviceName, name -> new CircuitBreaker(name, statsService,
+                failureRateThreshold, nrOfCalls, openDurationMillis, nrOfProbes, System::currentTimeMillis));
+    }
+}
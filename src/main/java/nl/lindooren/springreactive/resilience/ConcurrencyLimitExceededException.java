@@ -0,0 +1,11 @@
+package nl.lindooren.springreactive.resilience;
+
+/**
+ * Signals that a call to a webservice wasn't made because too many calls were in flight and waiting already
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    public ConcurrencyLimitExceededException(final String webserviceName) {
+        super("Too many calls to the " + webserviceName + " service are in flight");
+    }
+}
@@ -0,0 +1,237 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive limit on the number of calls to one upstream webservice that are in flight at the same time.
+ * <p>
+ * The limit is adjusted with AIMD on the response times of the calls (Vegas style): while the (smoothed)
+ * response time stays within a tolerance of the lowest response time seen recently, the limit grows by one
+ * per limit calls. When the response time exceeds that, or a call fails, the limit shrinks by the backoff ratio.
+ * <p>
+ * Calls over the limit wait in a bounded queue for a short while, when the queue is full or the wait takes too
+ * long the call fails immediately with a {@link ConcurrencyLimitExceededException} (instead of waiting for a
+ * time-out of a webservice that's overloaded anyway).
+ * Permits are acquired lock-free by any thread, the limit is only adjusted by one thread at a time
+ * (the event stream of the {@link StatsService}).
+ */
+public class ConcurrencyLimiter {
+
+    static final String REJECTED_COUNTER = "concurrencyLimitRejections";
+    static final String QUEUED_COUNTER = "concurrencyLimitQueued";
+
+    /**
+     * The lowest response time is forgotten after this number of calls, so the limit can adapt
+     * to a webservice that became slower for good
+     */
+    private static final int MIN_RESPONSE_TIME_RESET_INTERVAL = 1000;
+    /**
+     * The weight of a response time in the smoothed response time, so a single slow call doesn't decrease the limit
+     */
+    private static final double SMOOTHING = 0.1;
+
+    private final String webserviceName;
+    private final StatsService statsService;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final Duration maxQueueWait;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final Queue<Waiter> queue = new ConcurrentLinkedQueue<>();
+    // Only written by the thread reporting the outcomes
+    private volatile double limit;
+    private long minResponseTime = Long.MAX_VALUE;
+    private double smoothedResponseTime = -1;
+    private int nrOfSamples;
+
+    /**
+     * @param latencyTolerance how many times slower than the lowest response time the calls may get
+     *                         before the limit is decreased
+     * @param backoffRatio     the limit is multiplied by this ratio when it's decreased
+     */
+    public ConcurrencyLimiter(final String webserviceName, final StatsService statsService,
+                              final int initialLimit, final int minLimit, final int maxLimit,
+                              final int maxQueueSize, final Duration maxQueueWait,
+                              final double latencyTolerance, final double backoffRatio) {
+        this.webserviceName = webserviceName;
+        this.statsService = statsService;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWait = maxQueueWait;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        statsService.registerGauge(webserviceName, "concurrencyLimit", this::getLimit);
+        statsService.registerGauge(webserviceName, "callsInFlight", inFlight::get);
+        statsService.registerGauge(webserviceName, "concurrencyLimitQueueDepth", queueSize::get);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @param call creates the call to the webservice, only used once a permit was acquired
+     * @return the results of the call, or a {@link ConcurrencyLimitExceededException} when the call wasn't made
+     */
+    public <T> Flux<T> limit(final Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            if (tryAcquire()) {
+                return Flux.defer(call).doFinally(signal -> release());
+            }
+            if (queueSize.incrementAndGet() > maxQueueSize) {
+                queueSize.decrementAndGet();
+                statsService.incrementCounter(webserviceName, REJECTED_COUNTER);
+                return Flux.error(new ConcurrencyLimitExceededException(webserviceName));
+            }
+            statsService.incrementCounter(webserviceName, QUEUED_COUNTER);
+            return Mono.<Waiter>create(sink -> {
+                final Waiter waiter = new Waiter(sink);
+                sink.onCancel(waiter::cancel);
+                // Not an outer timeout: that could drop a waiter that was just granted a permit, and with it the permit
+                sink.onDispose(Schedulers.parallel().schedule(waiter::timeOut,
+                        maxQueueWait.toMillis(), TimeUnit.MILLISECONDS));
+                queue.offer(waiter);
+                // A permit might have been released before the waiter was queued
+                drain();
+            })
+                    .flatMapMany(waiter -> waiter.handOver()
+                            ? Flux.defer(call).doFinally(signal -> release())
+                            : Flux.<T>empty());
+        });
+    }
+
+    /**
+     * Adjusts the limit to the response time of a successful call
+     */
+    public void onSuccess(final long responseTime) {
+        if (++nrOfSamples % MIN_RESPONSE_TIME_RESET_INTERVAL == 0) {
+            minResponseTime = responseTime;
+        }
+        minResponseTime = Math.min(minResponseTime, responseTime);
+        smoothedResponseTime = smoothedResponseTime < 0
+                ? responseTime
+                : smoothedResponseTime + (responseTime - smoothedResponseTime) * SMOOTHING;
+        if (smoothedResponseTime > minResponseTime * latencyTolerance) {
+            decrease();
+        } else if (inFlight.get() * 2 >= limit) {
+            // Only grow when the limit is actually being used
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Adjusts the limit to a failed (or timed out) call
+     */
+    public void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        while (!queue.isEmpty() && tryAcquire()) {
+            final Waiter waiter = queue.poll();
+            if (waiter == null) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            queueSize.decrementAndGet();
+            if (!waiter.grant()) {
+                // Cancelled or timed out while waiting
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A call waiting for a permit.
+     * Once granted, the permit is either handed over to the call or released when the call was cancelled.
+     */
+    private class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int HANDED_OVER = 2;
+        private static final int CANCELLED = 3;
+
+        private final MonoSink<Waiter> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(final MonoSink<Waiter> sink) {
+            this.sink = sink;
+        }
+
+        private boolean grant() {
+            if (!state.compareAndSet(WAITING, GRANTED)) {
+                return false;
+            }
+            sink.success(this);
+            return true;
+        }
+
+        private boolean handOver() {
+            return state.compareAndSet(GRANTED, HANDED_OVER);
+        }
+
+        /**
+         * Only a waiter that is still waiting times out, once granted the permit is handed over
+         */
+        private void timeOut() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                dequeue();
+                statsService.incrementCounter(webserviceName, REJECTED_COUNTER);
+                sink.error(new ConcurrencyLimitExceededException(webserviceName));
+            }
+        }
+
+        private void cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                dequeue();
+                return;
+            }
+            if (state.compareAndSet(GRANTED, CANCELLED)) {
+                release();
+            }
+        }
+
+        private void dequeue() {
+            if (queue.remove(this)) {
+                queueSize.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link ConcurrencyLimiter}s of all upstream webservices, created on first use.
+ * <p>
+ * The limits are adjusted to the same response times and failures that go into the {@link StatsService}.
+ */
+@Service
+public class ConcurrencyLimiters {
+
+    private final StatsService statsService;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final Duration maxQueueWait;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final Map<String, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ConcurrencyLimiters(StatsService statsService,
+                               @Value("${resilience.concurrencyLimit.initialLimit}") int initialLimit,
+                               @Value("${resilience.concurrencyLimit.minLimit}") int minLimit,
+                               @Value("${resilience.concurrencyLimit.maxLimit}") int maxLimit,
+                               @Value("${resilience.concurrencyLimit.maxQueueSize}") int maxQueueSize,
+                               @Value("${resilience.concurrencyLimit.maxQueueWaitMillis}") long maxQueueWaitMillis,
+                               @Value("${resilience.concurrencyLimit.latencyTolerance}") double latencyTolerance,
+                               @Value("${resilience.concurrencyLimit.backoffRatio}") double backoffRatio) {
+        this.statsService = statsService;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWait = Duration.ofMillis(maxQueueWaitMillis);
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+    }
+
+    @PostConstruct
+    private void init() {
+        // The event stream is fed by a single thread, which is what the limiters expect of their outcomes
+        statsService.getEventStreamForAllWebservices()
+                .ofType(WebserviceCallEvent.class)
+                .subscribe(this::adjustLimit);
+    }
+
+    public ConcurrencyLimiter forWebservice(final String webserviceName) {
+        return concurrencyLimiters.computeIfAbsent(webserviceName, name -> new ConcurrencyLimiter(name, statsService,
+                initialLimit, minLimit, maxLimit, maxQueueSize, maxQueueWait, latencyTolerance, backoffRatio));
+    }
+
+    private void adjustLimit(final WebserviceCallEvent event) {
+        final ConcurrencyLimiter concurrencyLimiter = forWebservice(event.getWebserviceName());
+        if (event.getOutcome().isFailure()) {
+            concurrencyLimiter.onFailure();
+        } else if (event.isSuccess()) {
+            event.getResponseTime().ifPresent(concurrencyLimiter::onSuccess);
+        }
+    }
+}
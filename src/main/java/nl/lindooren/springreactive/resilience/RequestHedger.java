@@ -0,0 +1,139 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cuts the tail latency of upstream calls by hedging: when a call hasn't returned after the p95 response time
+ * of the webservice, a second identical call is made. Whichever responds first wins, the other one is cancelled.
+ * Once the hedge is made, the call only fails when both calls failed.
+ * <p>
+ * The extra load is capped by a budget per webservice: every call earns a fraction of a hedge
+ * (the max extra load percentage), a hedge is only made when a whole one was earned.
+ * No hedges are made until enough calls were made to have a meaningful p95.
+ */
+@Service
+public class RequestHedger {
+
+    static final String HEDGES_ISSUED_COUNTER = "hedgesIssued";
+    static final String HEDGES_WON_COUNTER = "hedgesWon";
+    static final String HEDGES_OVER_BUDGET_COUNTER = "hedgesOverBudget";
+
+    // The budget is kept in thousandths of a hedge
+    private static final long HEDGE_COST = 1000;
+    // Allows a short burst of hedges after a quiet period
+    private static final long MAX_BUDGET = 10 * HEDGE_COST;
+
+    private final StatsService statsService;
+    private final boolean enabled;
+    private final long earnedPerCall;
+    private final long minNrOfRequests;
+    private final Duration minDelay;
+    private final Map<String, AtomicLong> budgets = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxExtraLoadPercent the max number of hedges as a percentage of the number of calls
+     * @param minNrOfRequests     the number of calls in the stats window needed before hedging
+     * @param minDelayMillis      hedges are never made sooner than this
+     */
+    @Autowired
+    public RequestHedger(StatsService statsService,
+                         @Value("${resilience.hedging.enabled}") boolean enabled,
+                         @Value("${resilience.hedging.maxExtraLoadPercent}") double maxExtraLoadPercent,
+                         @Value("${resilience.hedging.minNrOfRequests}") long minNrOfRequests,
+                         @Value("${resilience.hedging.minDelayMillis}") long minDelayMillis) {
+        this.statsService = statsService;
+        this.enabled = enabled;
+        this.earnedPerCall = Math.round(maxExtraLoadPercent * HEDGE_COST / 100);
+        this.minNrOfRequests = minNrOfRequests;
+        this.minDelay = Duration.ofMillis(minDelayMillis);
+    }
+
+    /**
+     * @param call creates the call to the webservice, used once or (when hedged) twice
+     * @return the results of the call that responded (emitted, completed or failed) first
+     */
+    public <T> Flux<T> hedge(final String webserviceName, final Supplier<Flux<T>> call) {
+        if (!enabled) {
+            return Flux.defer(call);
+        }
+        return Flux.defer(() -> {
+            final AtomicLong budget = budgets.computeIfAbsent(webserviceName, name -> new AtomicLong());
+            budget.accumulateAndGet(earnedPerCall, (current, earned) -> Math.min(MAX_BUDGET, current + earned));
+            final Optional<Duration> delay = getHedgeDelay(webserviceName);
+            if (!delay.isPresent()) {
+                return call.get();
+            }
+            final AtomicBoolean hedgeIssued = new AtomicBoolean();
+            final AtomicInteger nrOfFailures = new AtomicInteger();
+            final Flux<T> hedged = Mono.delay(delay.get()).flatMapMany(tick -> {
+                if (!tryWithdraw(budget)) {
+                    statsService.incrementCounter(webserviceName, HEDGES_OVER_BUDGET_COUNTER);
+                    // Never signals, so the first call always wins
+                    return Flux.<T>never();
+                }
+                statsService.incrementCounter(webserviceName, HEDGES_ISSUED_COUNTER);
+                hedgeIssued.set(true);
+                final AtomicBoolean responded = new AtomicBoolean();
+                return failWhenBothFail(call.get()
+                        .doOnEach(signal -> {
+                            if (!signal.isOnError() && responded.compareAndSet(false, true)) {
+                                statsService.incrementCounter(webserviceName, HEDGES_WON_COUNTER);
+                            }
+                        }), hedgeIssued, nrOfFailures);
+            });
+            return Flux.first(failWhenBothFail(call.get(), hedgeIssued, nrOfFailures), hedged);
+        });
+    }
+
+    /**
+     * @return the p95 response time of the webservice, empty if there aren't enough calls to go by
+     */
+    Optional<Duration> getHedgeDelay(final String webserviceName) {
+        return statsService.getCurrentStatsForWebservice(webserviceName)
+                .filter(stats -> stats.getNrOfRequests() >= minNrOfRequests)
+                .map(WebserviceStats::getP95ResponseTime)
+                .map(Duration::ofMillis)
+                .map(delay -> delay.compareTo(minDelay) < 0 ? minDelay : delay);
+    }
+
+    /**
+     * Once the hedge is issued, a call that fails before it emitted anything leaves the response to the other call
+     * (which might still succeed): the error is only passed on when both calls failed.
+     * Before that, an error of the first call is the response.
+     */
+    private static <T> Flux<T> failWhenBothFail(final Flux<T> call, final AtomicBoolean hedgeIssued,
+                                                final AtomicInteger nrOfFailures) {
+        final AtomicBoolean emitted = new AtomicBoolean();
+        return call
+                .doOnNext(item -> emitted.set(true))
+                .onErrorResume(throwable -> emitted.get() || !hedgeIssued.get() || nrOfFailures.incrementAndGet() == 2
+                        ? Flux.error(throwable)
+                        : Flux.never());
+    }
+
+    private static boolean tryWithdraw(final AtomicLong budget) {
+        long current;
+        do {
+            current = budget.get();
+            if (current < HEDGE_COST) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - HEDGE_COST));
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package nl.lindooren.springreactive.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Prefix index of the items the sources returned before, so autocomplete-style searches (a search on
+ * every keystroke) can be answered without calling the sources.
+ * <p>
+ * Every item is indexed on every word of its (normalized, see {@link RelevanceRanker#normalize(String)}) title
+ * and authors onwards: "The Beatles" is found by "the b", "beatl" and "beatles". The keys are kept sorted
+ * (in a skip list), so a lookup is a range scan from the prefix on.
+ * <p>
+ * The index holds at most {@code maxItems} items, evicting the least recently used ones first:
+ * an item is used when it's added again or returned by a lookup.
+ */
+@Service
+public class AutocompleteIndex {
+
+    // Sorts before every other character, so the keys of a word sort before the keys of its continuations
+    private static final char SEPARATOR = '\u0000';
+    // Bounds the number of keys (memory) per item
+    private static final int MAX_WORDS_PER_TEXT = 8;
+
+    private final int maxItems;
+    // The (suffix of the) text of an item, the separator and the key of the item
+    private final ConcurrentSkipListMap<String, Indexed> prefixes = new ConcurrentSkipListMap<>();
+    // Guarded by itself, in access order so the eldest item is the least recently used one
+    private final LinkedHashMap<String, Indexed> items = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxItems the max number of items in the index
+     */
+    @Autowired
+    public AutocompleteIndex(@Value("${search.autocomplete.maxItems}") int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Adds the item, unless an item with the same key (see {@link RelevanceRanker#keyOf(MediaItem)}) is indexed
+     */
+    public void add(final MediaItem item) {
+        final String key = RelevanceRanker.keyOf(item);
+        synchronized (items) {
+            if (items.get(key) != null) {
+                return;
+            }
+        }
+        final Indexed indexed = new Indexed(item, key, indexKeysOf(item, key));
+        synchronized (items) {
+            if (items.putIfAbsent(key, indexed) != null) {
+                return;
+            }
+            for (String indexKey : indexed.indexKeys) {
+                prefixes.put(indexKey, indexed);
+            }
+            final Iterator<Indexed> leastRecentlyUsed = items.values().iterator();
+            while (items.size() > maxItems && leastRecentlyUsed.hasNext()) {
+                final Indexed eldest = leastRecentlyUsed.next();
+                for (String indexKey : eldest.indexKeys) {
+                    prefixes.remove(indexKey);
+                }
+                leastRecentlyUsed.remove();
+            }
+        }
+    }
+
+    /**
+     * @param query    the text the user typed so far
+     * @param maxItems the max number of items to return
+     * @return distinct items with a title or author containing a word that starts with the query
+     * (after normalization), in alphabetical order of the matching text
+     */
+    public List<MediaItem> lookup(final String query, final int maxItems) {
+        final String prefix = RelevanceRanker.normalize(query);
+        if (prefix.isEmpty() || maxItems <= 0) {
+            return Collections.emptyList();
+        }
+        final Set<Indexed> found = new LinkedHashSet<>();
+        for (Indexed indexed : prefixes.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            if (found.add(indexed) && found.size() >= maxItems) {
+                break;
+            }
+        }
+        final List<MediaItem> matches = new ArrayList<>(found.size());
+        synchronized (items) {
+            for (Indexed indexed : found) {
+                // Marks the item as used, unless it has been evicted in the meantime
+                items.get(indexed.key);
+                matches.add(indexed.item);
+            }
+        }
+        return matches;
+    }
+
+    int size() {
+        synchronized (items) {
+            return items.size();
+        }
+    }
+
+    private static String[] indexKeysOf(final MediaItem item, final String key) {
+        final Set<String> indexKeys = new LinkedHashSet<>();
+        addIndexKeys(indexKeys, RelevanceRanker.normalize(item.getTitle()), key);
+        for (String author : item.getAuthors()) {
+            addIndexKeys(indexKeys, RelevanceRanker.normalize(author), key);
+        }
+        return indexKeys.toArray(new String[0]);
+    }
+
+    /**
+     * Adds the text from every word on, e.g. "the beatles" and "beatles"
+     */
+    private static void addIndexKeys(final Set<String> indexKeys, final String normalizedText, final String key) {
+        int from = 0;
+        for (int word = 0; word < MAX_WORDS_PER_TEXT && from < normalizedText.length(); word++) {
+            indexKeys.add(normalizedText.substring(from) + SEPARATOR + key);
+            final int space = normalizedText.indexOf(' ', from);
+            if (space < 0) {
+                break;
+            }
+            from = space + 1;
+        }
+    }
+
+    private static class Indexed {
+        private final MediaItem item;
+        private final String key;
+        private final String[] indexKeys;
+
+        private Indexed(final MediaItem item, final String key, final String[] indexKeys) {
+            this.item = item;
+            this.key = key;
+            this.indexKeys = indexKeys;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package nl.lindooren.springreactive.search;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The {@link SearchService} for code that blocks: every method returns when the results are there, at the latest
+ * (about) the budget after it was called. The sources are searched on threads of this service (virtual threads
+ * when the JVM has them), so callers don't have to block threads of their own pools on reactive types.
+ */
+public interface BlockingSearchService {
+
+    /**
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the distinct books and albums matching the query, the most relevant first
+     */
+    List<MediaItem> searchAlbumsAndBooks(final String query, final Duration budget);
+
+    /**
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the books and albums matching the query (the most relevant first) and what became of the search of every source
+     */
+    SearchResponse searchAlbumsAndBooksWithStatus(final String query, final Duration budget);
+
+    /**
+     * @param limit  the max number of results
+     * @param budget the time the caller is prepared to wait for the results
+     * @return books and albums with a title or author containing a word that starts with the query,
+     * the most relevant first
+     * @see SearchService#autocompleteAlbumsAndBooks(String, int, Duration)
+     */
+    List<MediaItem> autocompleteAlbumsAndBooks(final String query, final int limit, final Duration budget);
+}
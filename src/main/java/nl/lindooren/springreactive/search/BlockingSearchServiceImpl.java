@@ -0,0 +1,152 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the fan-out of a search as a structured unit of work: the search of every source is a task of its own,
+ * which waits for (at most) the timeout of its source, and the caller joins them all. No task outlives the call:
+ * the ones that haven't finished when the caller stops waiting (at the end of the budget, or when the caller is
+ * interrupted) are cancelled, which cancels the call to their webservice.
+ * <p>
+ * With virtual threads a waiting task only holds a small stack on the heap instead of a platform thread,
+ * so many blocking searches can be in flight at the same time (see the BlockingSearchBenchmark).
+ */
+@Service
+@Slf4j
+public class BlockingSearchServiceImpl implements BlockingSearchService {
+
+    private static final String THREAD_NAME_PREFIX = "blocking-search-";
+    // Time on top of the budget for the results of a source that returns at its deadline to be collected
+    private static final Duration JOIN_GRACE = Duration.ofMillis(50);
+
+    private final SearchServiceImpl searchService;
+    private final RelevanceRanker relevanceRanker;
+    private final ExecutorService executor;
+
+    /**
+     * @param virtualThreads whether the sources are searched on virtual threads, when the JVM has them
+     */
+    @Autowired
+    public BlockingSearchServiceImpl(SearchServiceImpl searchService, RelevanceRanker relevanceRanker,
+                                     @Value("${search.blocking.virtualThreads}") boolean virtualThreads) {
+        this.searchService = searchService;
+        this.relevanceRanker = relevanceRanker;
+        this.executor = newExecutor(virtualThreads);
+    }
+
+    @Override
+    public List<MediaItem> searchAlbumsAndBooks(final String query, final Duration budget) {
+        return searchAlbumsAndBooksWithStatus(query, budget).getItems();
+    }
+
+    @Override
+    public SearchResponse searchAlbumsAndBooksWithStatus(final String query, final Duration budget) {
+        final long joinDeadline = System.nanoTime() + budget.plus(JOIN_GRACE).toNanos();
+        final Map<String, SourceStatus> statuses = new ConcurrentHashMap<>();
+        final List<String> sourceNames = searchService.getSourceNames();
+        final List<Mono<List<MediaItem>>> searches = searchService.searchSources(query, budget, statuses::put);
+        final List<Future<List<MediaItem>>> forks = new ArrayList<>(searches.size());
+        try {
+            for (Mono<List<MediaItem>> search : searches) {
+                forks.add(executor.submit(() -> search.block()));
+            }
+            // The results are joined in the order of the sources, so equally relevant items keep that order
+            final List<List<MediaItem>> runs = new ArrayList<>(forks.size());
+            for (int i = 0; i < forks.size(); i++) {
+                runs.add(join(forks.get(i), joinDeadline, sourceNames.get(i), statuses));
+            }
+            return new SearchResponse(relevanceRanker.rank(query, runs), new TreeMap<>(statuses));
+        } finally {
+            forks.forEach(fork -> fork.cancel(true));
+        }
+    }
+
+    /**
+     * Answered from the {@link AutocompleteIndex} on the calling thread. When there are too few matches the sources
+     * are searched like {@link #searchAlbumsAndBooksWithStatus(String, Duration)} does, so a source that times out
+     * is marked (and logged) as such and the results are the matches with what the other sources returned.
+     */
+    @Override
+    public List<MediaItem> autocompleteAlbumsAndBooks(final String query, final int limit, final Duration budget) {
+        final List<MediaItem> matches = searchService.lookupAutocompleteCandidates(query, limit);
+        if (searchService.areEnoughToAutocomplete(matches, limit)) {
+            return relevanceRanker.rank(query, Collections.singletonList(matches), limit);
+        }
+        final SearchResponse response = searchAlbumsAndBooksWithStatus(query, budget);
+        return relevanceRanker.rank(query, Arrays.asList(matches, response.getItems()), limit);
+    }
+
+    private static List<MediaItem> join(final Future<List<MediaItem>> fork, final long deadline,
+                                        final String sourceName, final Map<String, SourceStatus> statuses) {
+        try {
+            return fork.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("The {} service took too long to return results", sourceName);
+            statuses.putIfAbsent(sourceName, SourceStatus.TIMED_OUT);
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            // The search of a source returns the results so far on errors, so the task itself failed
+            log.error("Unexpected error while waiting for the " + sourceName + " service", e.getCause());
+            statuses.putIfAbsent(sourceName, SourceStatus.FAILED);
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task when asked for and the JVM has them (Java 21 on),
+     * otherwise one that reuses idle (daemon) platform threads
+     */
+    public static ExecutorService newExecutor(final boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                // Looked up, so the application still compiles for (and runs on) Java 8
+                final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class)
+                        .invoke(builder, THREAD_NAME_PREFIX, 0L);
+                final ThreadFactory threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                log.info("This JVM has no virtual threads, blocking searches use platform threads");
+            }
+        }
+        final AtomicInteger nrOfThreads = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            final Thread thread = new Thread(task, THREAD_NAME_PREFIX + nrOfThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,199 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.lindooren.springreactive.stats.CallDeadline;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, in memory {@link SearchResultCache}.
+ * <p>
+ * The cache is bounded on the number of entries and on its weight (the total number of cached items),
+ * the least recently used entries are evicted first.
+ * Entries older than the time to live are still served during the stale-while-revalidate period,
+ * while they are refreshed in the background. Only complete results are cached, results of a search
+ * that timed out or failed never end up in the cache.
+ * <p>
+ * Results are written through to a {@link SearchResultStore}, which is consulted on a miss. Results from the store
+ * keep their age, so after a restart they're served (or refreshed) as if they had never left the cache.
+ */
+@Slf4j
+@Service
+public class InMemorySearchResultCache implements SearchResultCache {
+
+    static final String HITS_COUNTER = "cacheHits";
+    static final String STALE_HITS_COUNTER = "cacheStaleHits";
+    static final String MISSES_COUNTER = "cacheMisses";
+    static final String STORE_HITS_COUNTER = "cacheStoreHits";
+    static final String EVICTIONS_COUNTER = "cacheEvictions";
+    static final String REFRESHES_COUNTER = "cacheRefreshes";
+
+    private final StatsService statsService;
+    private final SearchResultStore searchResultStore;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long timeToLiveNanos;
+    private final long staleWhileRevalidateNanos;
+    private final Duration refreshTimeout;
+
+    // Guarded by itself, in access order so the eldest entry is the least recently used one
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    @Autowired
+    public InMemorySearchResultCache(StatsService statsService, SearchResultStore searchResultStore,
+                                     @Value("${search.cache.maxEntries}") int maxEntries,
+                                     @Value("${search.cache.maxWeight}") long maxWeight,
+                                     @Value("${search.cache.timeToLiveSeconds}") long timeToLiveSeconds,
+                                     @Value("${search.cache.staleWhileRevalidateSeconds}") long staleWhileRevalidateSeconds,
+                                     @Value("${search.cache.refreshTimeoutMillis}") long refreshTimeoutMillis) {
+        this.statsService = statsService;
+        this.searchResultStore = searchResultStore;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.timeToLiveNanos = Duration.ofSeconds(timeToLiveSeconds).toNanos();
+        this.staleWhileRevalidateNanos = Duration.ofSeconds(staleWhileRevalidateSeconds).toNanos();
+        this.refreshTimeout = Duration.ofMillis(refreshTimeoutMillis);
+    }
+
+    @Override
+    public Flux<MediaItem> get(final String source, final String query, final int maxResults,
+                               final Supplier<Flux<MediaItem>> loader) {
+        return Flux.defer(() -> {
+            final CacheKey key = new CacheKey(source, query, maxResults);
+            final CacheEntry entry;
+            synchronized (entries) {
+                entry = entries.get(key);
+            }
+            if (entry != null || searchResultStore == SearchResultStore.NONE) {
+                return serve(key, entry, loader);
+            }
+            // The store reads from disk, which may block, so not on the thread of the caller (an event loop)
+            return Mono.fromCallable(() -> loadFromStore(key))
+                    .subscribeOn(Schedulers.elastic())
+                    .flatMapMany(stored -> serve(key, stored.orElse(null), loader));
+        });
+    }
+
+    private Flux<MediaItem> serve(final CacheKey key, final CacheEntry entry, final Supplier<Flux<MediaItem>> loader) {
+        if (entry != null) {
+            final long age = System.nanoTime() - entry.createdAt;
+            if (age <= timeToLiveNanos) {
+                statsService.incrementCounter(key.source, HITS_COUNTER);
+                return Flux.fromIterable(entry.items);
+            }
+            if (age <= timeToLiveNanos + staleWhileRevalidateNanos) {
+                statsService.incrementCounter(key.source, STALE_HITS_COUNTER);
+                refreshInBackground(key, entry, loader);
+                return Flux.fromIterable(entry.items);
+            }
+        }
+        statsService.incrementCounter(key.source, MISSES_COUNTER);
+        return loadAndCache(key, loader);
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Optional<CacheEntry> loadFromStore(final CacheKey key) {
+        return searchResultStore.get(key.source, key.query, key.maxResults)
+                .map(stored -> {
+                    statsService.incrementCounter(key.source, STORE_HITS_COUNTER);
+                    final long ageNanos = TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(0, System.currentTimeMillis() - stored.getStoredAtMillis()));
+                    final CacheEntry entry = new CacheEntry(Collections.unmodifiableList(stored.getItems()),
+                            System.nanoTime() - ageNanos);
+                    putInMemory(key, entry);
+                    return entry;
+                });
+    }
+
+    private Flux<MediaItem> loadAndCache(final CacheKey key, final Supplier<Flux<MediaItem>> loader) {
+        final List<MediaItem> items = new ArrayList<>();
+        return loader.get()
+                .doOnNext(items::add)
+                // Not cached when the subscriber cancels (e.g. on a timeout) because the results aren't complete
+                .doOnComplete(() -> put(key, items));
+    }
+
+    private void refreshInBackground(final CacheKey key, final CacheEntry entry,
+                                     final Supplier<Flux<MediaItem>> loader) {
+        if (entry.refreshing.compareAndSet(false, true)) {
+            statsService.incrementCounter(key.source, REFRESHES_COUNTER);
+            loader.get()
+                    .collectList()
+                    .timeout(refreshTimeout)
+                    // So the webservice reports a refresh that is cancelled at the time-out as a time-out
+                    .subscriberContext(CallDeadline.after(refreshTimeout))
+                    .subscribe(
+                            items -> put(key, items),
+                            throwable -> {
+                                log.warn("Refreshing the cached results of {} for query '{}' failed: {}",
+                                        key.source, key.query, throwable.toString());
+                                // Try again on the next request (while the entry may still be served)
+                                entry.refreshing.set(false);
+                            });
+        }
+    }
+
+    private void put(final CacheKey key, final List<MediaItem> items) {
+        final List<MediaItem> unmodifiableItems = Collections.unmodifiableList(items);
+        putInMemory(key, new CacheEntry(unmodifiableItems, System.nanoTime()));
+        searchResultStore.put(key.source, key.query, key.maxResults, unmodifiableItems);
+    }
+
+    private void putInMemory(final CacheKey key, final CacheEntry entry) {
+        final List<CacheKey> evicted = new ArrayList<>();
+        synchronized (entries) {
+            final CacheEntry replaced = entries.put(key, entry);
+            weight += entry.weight() - (replaced == null ? 0 : replaced.weight());
+            final Iterator<Map.Entry<CacheKey, CacheEntry>> leastRecentlyUsed = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && leastRecentlyUsed.hasNext()) {
+                final Map.Entry<CacheKey, CacheEntry> eldest = leastRecentlyUsed.next();
+                weight -= eldest.getValue().weight();
+                evicted.add(eldest.getKey());
+                leastRecentlyUsed.remove();
+            }
+        }
+        evicted.forEach(evictedKey -> statsService.incrementCounter(evictedKey.source, EVICTIONS_COUNTER));
+    }
+
+    @lombok.Value
+    private static class CacheKey {
+        private String source;
+        private String query;
+        private int maxResults;
+    }
+
+    private static class CacheEntry {
+        private final List<MediaItem> items;
+        private final long createdAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private CacheEntry(final List<MediaItem> items, final long createdAt) {
+            this.items = items;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * An empty result counts as well, it takes up space too
+         */
+        private long weight() {
+            return items.size() + 1;
+        }
+    }
+}
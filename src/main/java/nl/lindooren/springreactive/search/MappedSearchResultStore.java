@@ -0,0 +1,408 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * {@link SearchResultStore} in memory-mapped segment files on disk.
+ * <p>
+ * Results are appended to the active segment in a compact binary format (see {@link SearchResultRecords}),
+ * a record replaces the records of the same key in older segments. An in-memory index points at the latest
+ * record of every key, a lookup reads the items straight from the mapped segment (the OS caches the pages).
+ * <p>
+ * On startup the existing segments are mapped and indexed in the background, newest segment first,
+ * so the most recent results can be served within seconds of boot. Until a key has been indexed it's a miss.
+ * A new segment is started on every boot, so a record that was half written when the application stopped
+ * is never appended to.
+ * <p>
+ * Compaction periodically drops expired records and rewrites the live records of segments that are mostly
+ * dead (replaced or expired) into the active segment, after which the old segment file is deleted.
+ * All writes, the indexing and the compaction are done on one thread, lookups on any thread.
+ */
+@Slf4j
+@Service
+public class MappedSearchResultStore implements SearchResultStore {
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.dat");
+    // A segment with less live records than this (in bytes) is compacted
+    private static final double MIN_LIVE_RATIO = 0.5;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long timeToLiveMillis;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Key, Location> index = new ConcurrentHashMap<>();
+    private final Scheduler scheduler;
+    // Only touched on the scheduler
+    private Segment active;
+
+    /**
+     * @param enabled            when false nothing is stored (or read)
+     * @param directory          the directory of the segment files, created when it doesn't exist
+     * @param segmentSize        the size of a segment file in bytes, a record has to fit in one segment
+     * @param maxSegments        when a new segment for new results would exceed this number, the oldest segment
+     *                           is dropped (opening and compaction may exceed it for a while)
+     * @param timeToLiveSeconds  results older than this aren't returned and are dropped by the compaction
+     * @param compactionInterval the time between compactions in seconds
+     */
+    @Autowired
+    public MappedSearchResultStore(@Value("${search.diskCache.enabled}") boolean enabled,
+                                   @Value("${search.diskCache.directory}") String directory,
+                                   @Value("${search.diskCache.segmentSizeBytes}") int segmentSize,
+                                   @Value("${search.diskCache.maxSegments}") int maxSegments,
+                                   @Value("${search.diskCache.timeToLiveSeconds}") long timeToLiveSeconds,
+                                   @Value("${search.diskCache.compactionIntervalSeconds}") long compactionInterval) {
+        this(enabled, directory, segmentSize, maxSegments, timeToLiveSeconds, compactionInterval,
+                enabled ? Schedulers.newSingle("search-result-store", true) : null);
+    }
+
+    /**
+     * @param scheduler a single threaded scheduler, that does all writes, the indexing and the compaction
+     */
+    MappedSearchResultStore(final boolean enabled, final String directory, final int segmentSize,
+                            final int maxSegments, final long timeToLiveSeconds, final long compactionInterval,
+                            final Scheduler scheduler) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSegments);
+        this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+        this.scheduler = scheduler;
+        if (enabled) {
+            scheduler.schedule(this::open);
+            scheduler.schedulePeriodically(this::compact, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public Optional<StoredResults> get(final String source, final String query, final int maxResults) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        final Key key = new Key(source, query, maxResults);
+        final Location location = index.get(key);
+        if (location == null || isExpired(location.storedAtMillis)) {
+            return Optional.empty();
+        }
+        final Segment segment = segments.get(location.segmentId);
+        if (segment == null) {
+            // Dropped since the lookup
+            return Optional.empty();
+        }
+        final List<MediaItem> items = SearchResultRecords.itemsAt(segment.buffer, location.position);
+        if (items == null) {
+            log.warn("Dropped the corrupt record of {} for query '{}' in segment {}", source, query, segment.id);
+            scheduler.schedule(() -> removeFromIndex(key, location));
+            return Optional.empty();
+        }
+        return Optional.of(new StoredResults(items, location.storedAtMillis));
+    }
+
+    @Override
+    public void put(final String source, final String query, final int maxResults, final List<MediaItem> items) {
+        if (!enabled) {
+            return;
+        }
+        final long storedAtMillis = System.currentTimeMillis();
+        scheduler.schedule(() -> {
+            if (active == null) {
+                // Opening the store failed
+                return;
+            }
+            final byte[] record = SearchResultRecords.encode(source, query, maxResults, items, storedAtMillis);
+            if (record == null || record.length > segmentSize) {
+                log.debug("Didn't store the results of {} for query '{}', they don't fit", source, query);
+                return;
+            }
+            try {
+                updateIndex(new Key(source, query, maxResults), append(record, storedAtMillis, true));
+            } catch (IOException e) {
+                log.warn("Storing the results of {} for query '{}' failed: {}", source, query, e.toString());
+            }
+        });
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Waits until the writes (and indexing) scheduled so far are done
+     */
+    void awaitWrites() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(done::countDown);
+        done.await(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Compacts on the writer thread and waits until that's done
+     */
+    void compactNow() throws InterruptedException {
+        scheduler.schedule(this::compact);
+        awaitWrites();
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(directory);
+            final Map<Long, Path> files = new HashMap<>();
+            try (Stream<Path> paths = Files.list(directory)) {
+                paths.forEach(path -> {
+                    final Matcher matcher = SEGMENT_FILE.matcher(path.getFileName().toString());
+                    if (matcher.matches()) {
+                        files.put(Long.parseLong(matcher.group(1)), path);
+                    }
+                });
+            }
+            for (Map.Entry<Long, Path> file : files.entrySet()) {
+                segments.put(file.getKey(), Segment.map(file.getKey(), file.getValue(), Files.size(file.getValue())));
+            }
+            // Doesn't make room: the oldest segment is dropped when new results need the room, not before it's indexed
+            active = newSegment(false);
+            log.info("Opened {} segments of search results in {}", files.size(), directory.toAbsolutePath());
+        } catch (IOException e) {
+            log.error("Opening the stored search results in " + directory.toAbsolutePath() + " failed", e);
+            return;
+        }
+        // One task per segment, so results can be stored in between. Those are more recent than
+        // the records in the segments, which don't replace them in the index.
+        for (Segment segment : segments.headMap(active.id).descendingMap().values()) {
+            scheduler.schedule(() -> index(segment));
+        }
+    }
+
+    /**
+     * Adds the records of a segment to the index, unless the index has a more recent record of their key
+     */
+    private void index(final Segment segment) {
+        if (!segments.containsKey(segment.id)) {
+            // Dropped to make room for new results before it was indexed
+            return;
+        }
+        // A later record in the same segment replaces an earlier one
+        final Map<Key, Location> records = new HashMap<>();
+        int position = 0;
+        int length;
+        try {
+            while ((length = SearchResultRecords.lengthAt(segment.buffer, position)) > 0) {
+                final long storedAtMillis = SearchResultRecords.storedAtAt(segment.buffer, position);
+                records.put(SearchResultRecords.keyAt(segment.buffer, position),
+                        new Location(segment.id, position, length, storedAtMillis));
+                position += length;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Segment {} is corrupt at position {}, ignored the rest of it", segment.id, position);
+        }
+        segment.end = position;
+        segment.indexed = true;
+        records.forEach((key, location) -> {
+            if (!isExpired(location.storedAtMillis) && index.putIfAbsent(key, location) == null) {
+                segment.liveBytes.addAndGet(location.length);
+            }
+        });
+        log.debug("Indexed segment {}, {} search results are stored", segment.id, index.size());
+    }
+
+    /**
+     * @param makeRoom whether the oldest segments may be dropped when a new segment is started
+     */
+    private Location append(final byte[] record, final long storedAtMillis, final boolean makeRoom)
+            throws IOException {
+        if (active.end + record.length > active.buffer.capacity()) {
+            active.buffer.force();
+            active = newSegment(makeRoom);
+        }
+        final int position = active.end;
+        final ByteBuffer target = active.buffer.duplicate();
+        target.position(position + SearchResultRecords.LENGTH_BYTES);
+        // The length goes last, a record without it isn't there
+        target.put(record, SearchResultRecords.LENGTH_BYTES, record.length - SearchResultRecords.LENGTH_BYTES);
+        active.buffer.putInt(position, record.length - SearchResultRecords.LENGTH_BYTES);
+        active.end = position + record.length;
+        return new Location(active.id, position, record.length, storedAtMillis);
+    }
+
+    /**
+     * @param makeRoom whether the oldest segments are dropped when there are max segments, otherwise there
+     *                 can be one more for a while
+     */
+    private Segment newSegment(final boolean makeRoom) throws IOException {
+        while (makeRoom && segments.size() >= maxSegments) {
+            drop(segments.firstEntry().getValue());
+        }
+        final long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        final Segment segment = Segment.map(id, directory.resolve(String.format("segment-%06d.dat", id)), segmentSize);
+        segment.indexed = true;
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void updateIndex(final Key key, final Location location) {
+        segments.get(location.segmentId).liveBytes.addAndGet(location.length);
+        final Location replaced = index.put(key, location);
+        if (replaced != null) {
+            decrementLiveBytes(replaced);
+        }
+    }
+
+    private void removeFromIndex(final Key key, final Location location) {
+        if (index.remove(key, location)) {
+            decrementLiveBytes(location);
+        }
+    }
+
+    private void decrementLiveBytes(final Location location) {
+        final Segment segment = segments.get(location.segmentId);
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-location.length);
+        }
+    }
+
+    private void compact() {
+        if (active == null) {
+            return;
+        }
+        index.forEach((key, location) -> {
+            if (isExpired(location.storedAtMillis)) {
+                removeFromIndex(key, location);
+            }
+        });
+        for (Segment segment : segments.headMap(active.id).values()) {
+            // Until it's indexed a segment from before the start seems empty
+            if (segment.indexed && segment.liveBytes.get() <= segment.end * MIN_LIVE_RATIO) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    log.warn("Compacting segment {} failed: {}", segment.id, e.toString());
+                    return;
+                }
+            }
+        }
+    }
+
+    private void compact(final Segment segment) throws IOException {
+        int moved = 0;
+        for (Map.Entry<Key, Location> entry : index.entrySet()) {
+            final Location location = entry.getValue();
+            if (location.segmentId == segment.id) {
+                final byte[] record = new byte[location.length];
+                final ByteBuffer source = segment.buffer.duplicate();
+                source.position(location.position);
+                source.get(record);
+                // Making room could drop the segment that is compacted (with its live records), the segment
+                // is deleted afterwards anyway
+                final Location moveTo = append(record, location.storedAtMillis, false);
+                if (index.replace(entry.getKey(), location, moveTo)) {
+                    segments.get(moveTo.segmentId).liveBytes.addAndGet(moveTo.length);
+                    moved++;
+                }
+            }
+        }
+        segments.remove(segment.id);
+        Files.deleteIfExists(segment.path);
+        log.debug("Compacted segment {}, moved {} records", segment.id, moved);
+    }
+
+    /**
+     * Drops a segment with all its records, to make room for a new one
+     */
+    private void drop(final Segment segment) throws IOException {
+        segments.remove(segment.id);
+        index.values().removeIf(location -> location.segmentId == segment.id);
+        Files.deleteIfExists(segment.path);
+        log.info("Dropped segment {} of the stored search results, increase the number of segments to keep them longer",
+                segment.id);
+    }
+
+    private boolean isExpired(final long storedAtMillis) {
+        return System.currentTimeMillis() - storedAtMillis > timeToLiveMillis;
+    }
+
+    @PreDestroy
+    void close() {
+        if (scheduler != null) {
+            scheduler.dispose();
+            // The OS writes the pages back anyway, unless it crashes
+            final Segment active = this.active;
+            if (active != null) {
+                active.buffer.force();
+            }
+        }
+    }
+
+    @lombok.Value
+    static class Key {
+        private String source;
+        private String query;
+        private int maxResults;
+    }
+
+    private static class Location {
+        private final long segmentId;
+        private final int position;
+        private final int length;
+        private final long storedAtMillis;
+
+        private Location(final long segmentId, final int position, final int length, final long storedAtMillis) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.length = length;
+            this.storedAtMillis = storedAtMillis;
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // The bytes of the records the index points at
+        private final AtomicLong liveBytes = new AtomicLong();
+        // The end of the last record and whether the segment has been indexed, only touched on the scheduler
+        private int end;
+        private boolean indexed;
+
+        private Segment(final long id, final Path path, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        private static Segment map(final long id, final Path path, final long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+    }
+}
@@ -11,8 +11,11 @@ public class MediaItem implements Comparable<MediaItem> {
     private String title;
     @NonNull
     private Set<String> authors;
+    /**
+     * The kind of media, e.g. BOOK or ALBUM (every {@link MediaSource} has its own)
+     */
     @NonNull
-    private Type type;
+    private String type;
 
     /**
      * By default sort on title
@@ -24,9 +27,4 @@ public class MediaItem implements Comparable<MediaItem> {
     public int compareTo(MediaItem o) {
         return title.compareTo(o.title);
     }
-
-    enum Type {
-        BOOK,
-        ALBUM
-    }
 }
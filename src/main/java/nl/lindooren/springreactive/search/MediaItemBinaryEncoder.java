@@ -0,0 +1,161 @@
+package nl.lindooren.springreactive.search;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes {@link MediaItem}s in a compact, length-prefixed binary format for service-to-service callers.
+ * Every item is a record, so the same format is used for a search and a stream:
+ * <pre>
+ *     int   length of the rest of the record
+ *     ref   type
+ *     str   title
+ *     short number of authors, followed by a ref per author
+ * </pre>
+ * A {@code str} is an unsigned short with the number of bytes, followed by the UTF-8 bytes.
+ * A {@code ref} is a string that is likely to be repeated in a response: a short that is either the index of
+ * a string sent before in the response, or -1 followed by a {@code str} (which gets the next index).
+ * <p>
+ * Every item is written straight into its own (pooled) Netty buffer, without intermediate strings or arrays.
+ */
+public class MediaItemBinaryEncoder extends AbstractEncoder<MediaItem> {
+
+    public static final String MEDIA_ITEMS_VALUE = "application/x-media-items";
+    public static final MediaType MEDIA_ITEMS = MediaType.valueOf(MEDIA_ITEMS_VALUE);
+
+    private static final int NEW_STRING = -1;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    // The number of distinct strings that can be referred to in a response, later ones are always sent as such
+    private static final int MAX_REFS = Short.MAX_VALUE;
+    private static final int ESTIMATED_ITEM_BYTES = 128;
+
+    public MediaItemBinaryEncoder() {
+        super(MEDIA_ITEMS);
+    }
+
+    @Override
+    public boolean canEncode(final ResolvableType elementType, final MimeType mimeType) {
+        final Class<?> clazz = elementType.resolve();
+        return clazz != null && MediaItem.class.isAssignableFrom(clazz) && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(final Publisher<? extends MediaItem> inputStream,
+                                   final DataBufferFactory bufferFactory, final ResolvableType elementType,
+                                   final MimeType mimeType, final Map<String, Object> hints) {
+        return Flux.defer(() -> {
+            // Only touched by the items of one response, one at a time
+            final Map<String, Integer> refs = new HashMap<>();
+            return Flux.from(inputStream).map(item -> encode(item, bufferFactory, refs));
+        });
+    }
+
+    private DataBuffer encode(final MediaItem item, final DataBufferFactory bufferFactory,
+                              final Map<String, Integer> refs) {
+        final boolean pooled = bufferFactory instanceof NettyDataBufferFactory;
+        final DataBuffer dataBuffer = pooled ? bufferFactory.allocateBuffer(ESTIMATED_ITEM_BYTES) : null;
+        final ByteBuf out = pooled ? ((NettyDataBuffer) dataBuffer).getNativeBuffer() : Unpooled.buffer(ESTIMATED_ITEM_BYTES);
+        try {
+            final int start = out.writerIndex();
+            out.writeInt(0);
+            writeRef(out, item.getType(), refs);
+            writeString(out, item.getTitle());
+            out.writeShort(item.getAuthors().size());
+            for (String author : item.getAuthors()) {
+                writeRef(out, author, refs);
+            }
+            out.setInt(start, out.writerIndex() - start - 4);
+        } catch (RuntimeException e) {
+            if (pooled) {
+                out.release();
+            }
+            throw e;
+        }
+        return pooled ? dataBuffer : bufferFactory.wrap(out.nioBuffer());
+    }
+
+    private static void writeRef(final ByteBuf out, final String value, final Map<String, Integer> refs) {
+        final Integer ref = refs.get(value);
+        if (ref != null) {
+            out.writeShort(ref);
+            return;
+        }
+        if (refs.size() < MAX_REFS) {
+            refs.put(value, refs.size());
+        }
+        out.writeShort(NEW_STRING);
+        writeString(out, value);
+    }
+
+    private static void writeString(final ByteBuf out, final String value) {
+        final int lengthIndex = out.writerIndex();
+        out.writeShort(0);
+        final int length = ByteBufUtil.writeUtf8(out, value);
+        if (length > MAX_STRING_BYTES) {
+            throw new EncodingException("A string of " + length + " bytes is too long for " + MEDIA_ITEMS_VALUE);
+        }
+        out.setShort(lengthIndex, length);
+    }
+
+    /**
+     * Reads a complete response, e.g. for clients or tests
+     *
+     * @return the items of the response, in order
+     */
+    public static List<MediaItem> decode(final ByteBuffer response) {
+        final List<MediaItem> items = new ArrayList<>();
+        final List<String> strings = new ArrayList<>();
+        while (response.remaining() >= 4) {
+            final int end = response.getInt() + response.position();
+            final String type = readRef(response, strings);
+            final String title = readString(response);
+            final int nrOfAuthors = response.getShort() & 0xFFFF;
+            final Set<String> authors = new HashSet<>(nrOfAuthors * 2);
+            for (int i = 0; i < nrOfAuthors; i++) {
+                authors.add(readRef(response, strings));
+            }
+            items.add(new MediaItem(title, authors, type));
+            response.position(end);
+        }
+        return items;
+    }
+
+    private static String readRef(final ByteBuffer response, final List<String> strings) {
+        final int ref = response.getShort();
+        if (ref != NEW_STRING) {
+            return strings.get(ref);
+        }
+        final String value = readString(response);
+        if (strings.size() < MAX_REFS) {
+            strings.add(value);
+        }
+        return value;
+    }
+
+    private static String readString(final ByteBuffer response) {
+        final byte[] bytes = new byte[response.getShort() & 0xFFFF];
+        response.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
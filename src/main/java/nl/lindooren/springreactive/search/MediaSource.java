@@ -0,0 +1,51 @@
+package nl.lindooren.springreactive.search;
+
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * A catalog that can be searched for media. Every {@link MediaSource} bean is searched by the {@link SearchService},
+ * which takes care of caching, coalescing identical calls, the circuit breaker, time-outs and merging the results.
+ */
+public interface MediaSource {
+
+    /**
+     * @return the name of the source, which is also the name of its webservice in the stats
+     */
+    String getName();
+
+    /**
+     * @return at most maxResults items matching the query, in any order
+     */
+    Flux<MediaItem> search(final String query, final int maxResults);
+
+    /**
+     * By default the results before the offset are fetched and skipped, sources that can page through
+     * their results should only fetch the pages that are requested.
+     *
+     * @param offset   the number of results to skip, the results have to be in the same order on every call
+     * @param pageSize the number of results to fetch per call to the source
+     * @return at most maxResults items matching the query, starting at the offset
+     */
+    default Flux<MediaItem> search(final String query, final int offset, final int maxResults, final int pageSize) {
+        return search(query, offset + maxResults).skip(offset);
+    }
+
+    /**
+     * @return the number of results to ask this source for, by default the number configured for all sources
+     */
+    default OptionalInt getNrOfResults() {
+        return OptionalInt.empty();
+    }
+
+    /**
+     * @return the max time to wait on this source whatever the budget of the search,
+     * by default the source is waited on for (at most) the budget
+     */
+    default Optional<Duration> getMaxTimeout() {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,224 @@
+package nl.lindooren.springreactive.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the results of all sources into one list: near-duplicates are dropped and the remaining items
+ * are ranked by their relevance to the query.
+ * <p>
+ * Titles and authors are normalized into a compact key (lower case, without accents, punctuation
+ * and qualifiers like "(Deluxe Edition)" or "- Remastered 2011"), so duplicates are found in one pass
+ * with a hash set. Only the best {@code maxResults} items are kept, in a bounded heap,
+ * so ranking n items takes O(n log k) instead of sorting all of them.
+ */
+@Service
+public class RelevanceRanker {
+
+    // Exactly the query, starting with the query, containing the query or only some words of the query
+    private static final int EXACT_TITLE = 100;
+    private static final int TITLE_PREFIX = 75;
+    private static final int TITLE_CONTAINS = 50;
+    private static final int TITLE_WORDS = 40;
+    private static final int AUTHOR_WORDS = 20;
+
+    private static final Pattern QUALIFIER = Pattern.compile(
+            "\\s*(?:[(\\[][^)\\]]*\\b(?:remaster(?:ed)?|deluxe|edition|version|anniversary|expanded|bonus)\\b[^)\\]]*[)\\]]" +
+                    "|\\s-\\s[^-]*\\b(?:remaster(?:ed)?|deluxe|edition|version|anniversary)\\b.*$)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final int maxResults;
+
+    /**
+     * @param maxResults the max number of results of a search (for all sources together)
+     */
+    @Autowired
+    public RelevanceRanker(@Value("${search.ranking.maxResults}") int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * @param query the search query
+     * @param runs  the results of every source, when items are equally relevant the item of the earliest run
+     *              (and the earliest position within that run) comes first
+     * @return the best distinct items, the most relevant first and equally relevant ones sorted on title
+     */
+    public List<MediaItem> rank(final String query, final List<? extends List<MediaItem>> runs) {
+        return rank(query, runs, maxResults);
+    }
+
+    /**
+     * @param maxResults the max number of results, instead of the configured number
+     * @see #rank(String, List)
+     */
+    public List<MediaItem> rank(final String query, final List<? extends List<MediaItem>> runs, final int maxResults) {
+        final Query normalizedQuery = new Query(normalize(query));
+        final Set<String> seen = new HashSet<>();
+        final PriorityQueue<Ranked> best = new PriorityQueue<>(Math.max(1, maxResults), Ranked.WORST_FIRST);
+        int sequence = 0;
+        for (List<MediaItem> run : runs) {
+            for (MediaItem item : run) {
+                final String title = normalize(item.getTitle());
+                if (!seen.add(keyOf(item.getType(), title, item.getAuthors()))) {
+                    continue;
+                }
+                final Ranked ranked = new Ranked(item, normalizedQuery.score(title, item.getAuthors()), sequence++);
+                if (best.size() < maxResults) {
+                    best.add(ranked);
+                } else if (!best.isEmpty() && Ranked.WORST_FIRST.compare(ranked, best.peek()) > 0) {
+                    best.poll();
+                    best.add(ranked);
+                }
+            }
+        }
+        final MediaItem[] ranking = new MediaItem[best.size()];
+        for (int i = ranking.length - 1; i >= 0; i--) {
+            ranking[i] = best.poll().item;
+        }
+        return Arrays.asList(ranking);
+    }
+
+    /**
+     * @return the key of the item, equal for items that only differ in casing, punctuation or qualifiers
+     */
+    public static String keyOf(final MediaItem item) {
+        return keyOf(item.getType(), normalize(item.getTitle()), item.getAuthors());
+    }
+
+    private static String keyOf(final String type, final String normalizedTitle, final Set<String> authors) {
+        final StringBuilder key = new StringBuilder(type.length() + normalizedTitle.length() + 32)
+                .append(type).append('|').append(normalizedTitle);
+        if (authors.size() == 1) {
+            key.append('|').append(normalize(authors.iterator().next()));
+        } else if (!authors.isEmpty()) {
+            // The order of a set isn't defined
+            final String[] normalizedAuthors = new String[authors.size()];
+            int i = 0;
+            for (String author : authors) {
+                normalizedAuthors[i++] = normalize(author);
+            }
+            Arrays.sort(normalizedAuthors);
+            for (String author : normalizedAuthors) {
+                key.append('|').append(author);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the text in lower case without accents and qualifiers,
+     * with every run of other characters than letters and digits replaced by a single space
+     */
+    static String normalize(final String text) {
+        final String unqualified = text.indexOf('(') >= 0 || text.indexOf('[') >= 0 || text.indexOf(" - ") >= 0
+                ? QUALIFIER.matcher(text).replaceAll("")
+                : text;
+        final String decomposed = isAscii(unqualified)
+                ? unqualified
+                : Normalizer.normalize(unqualified, Normalizer.Form.NFD);
+        final StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean separate = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separate && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                separate = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                separate = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isAscii(final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Query {
+        private final String text;
+        private final String[] words;
+
+        private Query(final String normalizedQuery) {
+            this.text = normalizedQuery;
+            this.words = normalizedQuery.isEmpty() ? new String[0] : normalizedQuery.split(" ");
+        }
+
+        private int score(final String normalizedTitle, final Set<String> authors) {
+            if (words.length == 0) {
+                return 0;
+            }
+            final int titleScore;
+            if (normalizedTitle.equals(text)) {
+                titleScore = EXACT_TITLE;
+            } else if (normalizedTitle.startsWith(text + ' ')) {
+                titleScore = TITLE_PREFIX;
+            } else if (containsWords(normalizedTitle, text)) {
+                titleScore = TITLE_CONTAINS;
+            } else {
+                titleScore = TITLE_WORDS * nrOfWordsIn(normalizedTitle) / words.length;
+            }
+            int authorWords = 0;
+            for (String author : authors) {
+                authorWords = Math.max(authorWords, nrOfWordsIn(normalize(author)));
+            }
+            return titleScore + AUTHOR_WORDS * authorWords / words.length;
+        }
+
+        private int nrOfWordsIn(final String normalizedText) {
+            int nrOfWords = 0;
+            for (String word : words) {
+                if (containsWords(normalizedText, word)) {
+                    nrOfWords++;
+                }
+            }
+            return nrOfWords;
+        }
+
+        /**
+         * @return whether the text contains the words as a whole (so "art" isn't found in "heart")
+         */
+        private static boolean containsWords(final String normalizedText, final String normalizedWords) {
+            int from = 0;
+            int index;
+            while ((index = normalizedText.indexOf(normalizedWords, from)) >= 0) {
+                final int end = index + normalizedWords.length();
+                if ((index == 0 || normalizedText.charAt(index - 1) == ' ')
+                        && (end == normalizedText.length() || normalizedText.charAt(end) == ' ')) {
+                    return true;
+                }
+                from = index + 1;
+            }
+            return false;
+        }
+    }
+
+    private static class Ranked {
+        // The least relevant item, the last title, the latest item
+        private static final Comparator<Ranked> WORST_FIRST = Comparator.<Ranked>comparingInt(ranked -> ranked.score)
+                .thenComparing(ranked -> ranked.item, Comparator.reverseOrder())
+                .thenComparing(Comparator.<Ranked>comparingInt(ranked -> ranked.sequence).reversed());
+
+        private final MediaItem item;
+        private final int score;
+        private final int sequence;
+
+        private Ranked(final MediaItem item, final int score, final int sequence) {
+            this.item = item;
+            this.score = score;
+            this.sequence = sequence;
+        }
+    }
+}
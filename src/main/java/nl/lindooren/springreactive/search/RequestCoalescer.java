@@ -0,0 +1,76 @@
+package nl.lindooren.springreactive.search;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure only one call is made to an upstream webservice for identical requests that are in flight
+ * at the same time (single-flight). All concurrent subscribers share the same upstream call.
+ * <p>
+ * A key is released as soon as the upstream call completes, fails or is cancelled
+ * (which happens when all its subscribers timed out), so a finished call is never shared.
+ *
+ * @param <K> the key identifying identical requests
+ * @param <T> the type of results
+ */
+class RequestCoalescer<K, T> {
+
+    static final String ISSUED_COUNTER = "upstreamCallsIssued";
+    static final String COALESCED_COUNTER = "upstreamCallsCoalesced";
+
+    private final String serviceName;
+    private final StatsService statsService;
+    private final ConcurrentMap<K, Flux<T>> inFlight = new ConcurrentHashMap<>();
+
+    RequestCoalescer(final String serviceName, final StatsService statsService) {
+        this.serviceName = serviceName;
+        this.statsService = statsService;
+    }
+
+    /**
+     * @param key          identifies the request
+     * @param upstreamCall creates the call to the upstream webservice, only used if no identical call is in flight
+     * @return the results of the call that is in flight for the given key (or a new call if there was none)
+     */
+    Flux<T> coalesce(final K key, final Supplier<Flux<T>> upstreamCall) {
+        return Flux.defer(() -> {
+            Flux<T> existing = inFlight.get(key);
+            if (existing != null) {
+                statsService.incrementCounter(serviceName, COALESCED_COUNTER);
+                return existing;
+            }
+            Flux<T> shared = share(key, upstreamCall);
+            existing = inFlight.putIfAbsent(key, shared);
+            if (existing != null) {
+                // Lost the race with another subscriber, the upstream call hasn't been made yet so nothing is wasted
+                statsService.incrementCounter(serviceName, COALESCED_COUNTER);
+                return existing;
+            }
+            statsService.incrementCounter(serviceName, ISSUED_COUNTER);
+            return shared;
+        });
+    }
+
+    int getNrOfCallsInFlight() {
+        return inFlight.size();
+    }
+
+    private Flux<T> share(final K key, final Supplier<Flux<T>> upstreamCall) {
+        final AtomicReference<Flux<T>> self = new AtomicReference<>();
+        // Released before the terminal signal reaches the subscribers, so they can immediately search again
+        final Runnable release = () -> inFlight.remove(key, self.get());
+        final Flux<T> shared = Flux.defer(upstreamCall)
+                .doOnTerminate(release)
+                .doOnCancel(release)
+                // Subscribers joining while the call is in flight also receive the results that were already emitted
+                .replay()
+                .refCount();
+        self.set(shared);
+        return shared;
+    }
+}
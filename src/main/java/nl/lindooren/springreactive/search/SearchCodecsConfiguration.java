@@ -0,0 +1,23 @@
+package nl.lindooren.springreactive.search;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Besides JSON, search results can be sent as Smile (binary JSON) or in the compact format of the
+ * {@link MediaItemBinaryEncoder}, whichever the caller accepts.
+ * The Smile encoder is one of the default codecs (as jackson-dataformat-smile is on the classpath),
+ * only the binary encoder has to be added.
+ */
+@Configuration
+public class SearchCodecsConfiguration implements WebFluxConfigurer {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final String STREAM_SMILE_VALUE = "application/stream+x-jackson-smile";
+
+    @Override
+    public void configureHttpMessageCodecs(final ServerCodecConfigurer configurer) {
+        configurer.customCodecs().encoder(new MediaItemBinaryEncoder());
+    }
+}
@@ -1,34 +1,162 @@
 package nl.lindooren.springreactive.search;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
+import java.time.Duration;
 
 @RestController
 public class SearchController {
 
+    /**
+     * The time (in milliseconds) the client is prepared to wait for the results, e.g. set by the edge
+     * for mobile clients. Defaults to one second.
+     */
+    static final String BUDGET_HEADER = "X-Request-Budget";
+    private static final Duration MAX_BUDGET = Duration.ofSeconds(10);
+
     private SearchService searchService;
+    private int defaultLimit;
+    private int maxLimit;
 
+    /**
+     * @param defaultLimit the number of results of a page when the client doesn't ask for a number
+     * @param maxLimit     the max number of results of a page
+     */
     @Autowired
-    public SearchController(SearchService searchService) {
+    public SearchController(SearchService searchService,
+                            @Value("${search.pagination.defaultLimit}") int defaultLimit,
+                            @Value("${search.pagination.maxLimit}") int maxLimit) {
         this.searchService = searchService;
+        this.defaultLimit = defaultLimit;
+        this.maxLimit = maxLimit;
     }
 
     /**
+     * JSON by default, callers can ask for Smile or the compact {@link MediaItemBinaryEncoder} format instead.
      * <pre>
      *     curl 'http://localhost:8080/search/albumsAndBooks/Bicycle'
+     *     curl -H 'X-Request-Budget: 300' 'http://localhost:8080/search/albumsAndBooks/Bicycle'
+     *     curl -H 'Accept: application/x-media-items' 'http://localhost:8080/search/albumsAndBooks/Bicycle' | xxd
+     * </pre>
+     *
+     * @param query
+     * @param budget optional time in milliseconds the client is prepared to wait
+     * @return
+     */
+    @GetMapping(value = "/search/albumsAndBooks/{query}", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE,
+            SearchCodecsConfiguration.SMILE_VALUE, MediaItemBinaryEncoder.MEDIA_ITEMS_VALUE})
+    public Flux<MediaItem> searchMedia(@PathVariable String query,
+                                       @RequestHeader(value = BUDGET_HEADER, required = false) Long budget) {
+        return searchService.searchAlbumsAndBooks(query, toBudget(budget));
+    }
+
+    /**
+     * The results together with the status of every source (completed, timed out, skipped or failed).
+     * A response with partial results shouldn't be cached.
+     * <pre>
+     *     curl -v -H 'X-Request-Budget: 300' 'http://localhost:8080/search/albumsAndBooks/Bicycle/envelope'
+     * </pre>
+     *
+     * @param query
+     * @param budget optional time in milliseconds the client is prepared to wait
+     * @return
+     */
+    @GetMapping(value = "/search/albumsAndBooks/{query}/envelope", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public Mono<ResponseEntity<SearchResponse>> searchMediaWithStatus(
+            @PathVariable String query,
+            @RequestHeader(value = BUDGET_HEADER, required = false) Long budget) {
+        return searchService.searchAlbumsAndBooksWithStatus(query, toBudget(budget))
+                .map(response -> response.isPartial()
+                        ? ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(response)
+                        : ResponseEntity.ok(response));
+    }
+
+    /**
+     * Streams the results (as newline delimited JSON, server sent events, Smile or length-prefixed binary records),
+     * so the first results can be rendered by the client before the slowest source has answered.
+     * <pre>
+     *     curl -H 'Accept: application/stream+json' 'http://localhost:8080/search/albumsAndBooks/Bicycle/stream'
+     *     curl -H 'Accept: text/event-stream' 'http://localhost:8080/search/albumsAndBooks/Bicycle/stream?ordered=true'
      * </pre>
      *
      * @param query
+     * @param ordered when true the results are ranked by relevance,
+     *                otherwise the results of a source are emitted as soon as they arrive
+     * @param budget  optional time in milliseconds the client is prepared to wait
      * @return
      */
-    @GetMapping(value = "/search/albumsAndBooks/{query}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public Flux<MediaItem> searchMedia(@PathVariable String query) {
-        return searchService.searchAlbumsAndBooks(query);
+    @GetMapping(value = "/search/albumsAndBooks/{query}/stream",
+            produces = {MediaType.APPLICATION_STREAM_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE,
+                    SearchCodecsConfiguration.STREAM_SMILE_VALUE, MediaItemBinaryEncoder.MEDIA_ITEMS_VALUE})
+    public Flux<MediaItem> streamMedia(@PathVariable String query,
+                                       @RequestParam(defaultValue = "false") boolean ordered,
+                                       @RequestHeader(value = BUDGET_HEADER, required = false) Long budget) {
+        return ordered
+                ? searchService.searchAlbumsAndBooks(query, toBudget(budget))
+                : searchService.streamAlbumsAndBooks(query, toBudget(budget));
+    }
+
+    /**
+     * Suggestions while the user types, from the results of earlier searches when enough of them match
+     * <pre>
+     *     curl 'http://localhost:8080/search/albumsAndBooks/beatl/autocomplete?limit=5'
+     * </pre>
+     *
+     * @param query
+     * @param limit  optional max number of suggestions
+     * @param budget optional time in milliseconds the client is prepared to wait
+     * @return
+     */
+    @GetMapping(value = "/search/albumsAndBooks/{query}/autocomplete", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public Flux<MediaItem> autocompleteMedia(@PathVariable String query,
+                                             @RequestParam(required = false) Integer limit,
+                                             @RequestHeader(value = BUDGET_HEADER, required = false) Long budget) {
+        return searchService.autocompleteAlbumsAndBooks(query, toLimit(limit), toBudget(budget));
+    }
+
+    /**
+     * One page of the results, the nextCursor of the response points at the next page.
+     * Only the results that are needed for the page are fetched from the sources.
+     * <pre>
+     *     curl 'http://localhost:8080/search/albumsAndBooks/Bicycle/page?limit=10'
+     *     curl 'http://localhost:8080/search/albumsAndBooks/Bicycle/page?limit=10&cursor=YWxidW1zPTUsYm9va3M9Mw'
+     * </pre>
+     *
+     * @param query
+     * @param cursor optional nextCursor of the previous page, the first page when absent
+     * @param limit  optional max number of results of the page
+     * @param budget optional time in milliseconds the client is prepared to wait
+     * @return
+     */
+    @GetMapping(value = "/search/albumsAndBooks/{query}/page", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public Mono<SearchPage> searchMediaPage(@PathVariable String query,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestHeader(value = BUDGET_HEADER, required = false) Long budget) {
+        return Mono.defer(() -> searchService.searchAlbumsAndBooksPage(query, SearchCursor.decode(cursor),
+                toLimit(limit), toBudget(budget)));
+    }
+
+    private int toLimit(final Integer limit) {
+        return limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+    }
+
+    private Duration toBudget(final Long budgetMillis) {
+        if (budgetMillis == null) {
+            return SearchServiceImpl.DEFAULT_BUDGET;
+        }
+        final Duration budget = Duration.ofMillis(Math.max(0, budgetMillis));
+        return budget.compareTo(MAX_BUDGET) > 0 ? MAX_BUDGET : budget;
     }
 }
@@ -0,0 +1,81 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.NonNull;
+import lombok.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where the next page of a search starts: the number of results of every source that were returned so far.
+ * It's passed to the client as an opaque (URL safe) string, so the service stays stateless.
+ */
+@Value
+public class SearchCursor {
+
+    /**
+     * The first page
+     */
+    public static final SearchCursor START = new SearchCursor(Collections.emptyMap());
+
+    @NonNull
+    private Map<String, Integer> offsets;
+
+    /**
+     * @return the offset of the next result of the source, 0 for a source that wasn't searched yet
+     */
+    public int getOffset(final String sourceName) {
+        return offsets.getOrDefault(sourceName, 0);
+    }
+
+    /**
+     * @return the cursor as a URL safe string, e.g. "YWxidW1zPTUsYm9va3M9Mw" for albums=5,books=3
+     */
+    public String encode() {
+        final StringBuilder text = new StringBuilder();
+        new TreeMap<>(offsets).forEach((sourceName, offset) ->
+                text.append(text.length() == 0 ? "" : ",").append(sourceName).append('=').append(offset));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor an encoded cursor, {@link #START} when null or empty
+     * @throws InvalidCursorException when the cursor isn't a cursor that was encoded by {@link #encode()}
+     */
+    public static SearchCursor decode(final String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return START;
+        }
+        try {
+            final String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            final Map<String, Integer> offsets = new TreeMap<>();
+            for (String entry : text.split(",")) {
+                final int separator = entry.indexOf('=');
+                final int offset = Integer.parseInt(entry.substring(separator + 1));
+                if (separator <= 0 || offset < 0) {
+                    throw new InvalidCursorException();
+                }
+                offsets.put(entry.substring(0, separator), offset);
+            }
+            return new SearchCursor(offsets);
+        } catch (IllegalArgumentException e) {
+            // Including a NumberFormatException
+            throw new InvalidCursorException();
+        }
+    }
+
+    /**
+     * The client passed a cursor that this service didn't create
+     */
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Invalid cursor, use the nextCursor of the previous page")
+    public static class InvalidCursorException extends IllegalArgumentException {
+        InvalidCursorException() {
+            super("Invalid cursor, use the nextCursor of the previous page");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of the results of a search
+ */
+@Value
+public class SearchPage {
+    /**
+     * Merged from the results of the sources, the most relevant first as far as the order of every source allows
+     * (ranked within the page, not across pages)
+     */
+    @NonNull
+    private List<MediaItem> items;
+    /**
+     * The (encoded) cursor of the next page, null when no source has more results.
+     * A source that didn't complete might have more, so the cursor is kept.
+     */
+    private String nextCursor;
+    @NonNull
+    private Map<String, SourceStatus> sources;
+
+    /**
+     * @return true when not every source completed, so the page might miss results (which the next page may have)
+     */
+    public boolean isPartial() {
+        return sources.values().stream().anyMatch(status -> status != SourceStatus.COMPLETED);
+    }
+}
@@ -0,0 +1,26 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a search together with the status of every source,
+ * so "no matches" can be told apart from "the source was too slow"
+ */
+@Value
+public class SearchResponse {
+    @NonNull
+    private List<MediaItem> items;
+    @NonNull
+    private Map<String, SourceStatus> sources;
+
+    /**
+     * @return true when not every source completed, so the items might not be all matches
+     */
+    public boolean isPartial() {
+        return sources.values().stream().anyMatch(status -> status != SourceStatus.COMPLETED);
+    }
+}
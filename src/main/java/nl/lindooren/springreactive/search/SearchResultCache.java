@@ -0,0 +1,27 @@
+package nl.lindooren.springreactive.search;
+
+import reactor.core.publisher.Flux;
+
+import java.util.function.Supplier;
+
+/**
+ * Cache of the results of one source (upstream webservice) for a given search query.
+ * Results are cached per source, so cached books can be combined with albums that still have to be retrieved.
+ */
+public interface SearchResultCache {
+
+    /**
+     * Doesn't cache anything, always uses the loader
+     */
+    SearchResultCache NONE = (source, query, maxResults, loader) -> loader.get();
+
+    /**
+     * @param source     name of the source (webservice) the results are from
+     * @param query      sanitized search query
+     * @param maxResults the maximum number of results
+     * @param loader     retrieves the results from the source when they aren't cached (or have to be refreshed)
+     * @return the cached results, or the results of the loader
+     */
+    Flux<MediaItem> get(final String source, final String query, final int maxResults,
+                        final Supplier<Flux<MediaItem>> loader);
+}
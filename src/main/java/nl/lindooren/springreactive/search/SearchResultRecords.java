@@ -0,0 +1,171 @@
+package nl.lindooren.springreactive.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The binary format of the results in the {@link MappedSearchResultStore}, one record per key:
+ * <pre>
+ *     int    length of the rest of the record
+ *     int    CRC32 of everything after it
+ *     long   stored at (epoch millis)
+ *     string source, string query, int max results
+ *     int    number of items, per item: string type, string title, short number of authors, string per author
+ * </pre>
+ * A string is an unsigned short with the number of bytes, followed by the UTF-8 bytes. An unwritten
+ * (zeroed) length marks the end of a segment, so a record is only visible once its length has been written.
+ */
+final class SearchResultRecords {
+
+    static final int LENGTH_BYTES = 4;
+    private static final int CRC_OFFSET = 4;
+    private static final int STORED_AT_OFFSET = 8;
+    private static final int KEY_OFFSET = 16;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private SearchResultRecords() {
+    }
+
+    /**
+     * @return the record, null when one of the strings is too long to be stored
+     */
+    static byte[] encode(final String source, final String query, final int maxResults,
+                         final List<MediaItem> items, final long storedAtMillis) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(KEY_OFFSET + 64 + items.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // The length and CRC are filled in when the rest is known
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(storedAtMillis);
+            if (!writeString(out, source) || !writeString(out, query)) {
+                return null;
+            }
+            out.writeInt(maxResults);
+            out.writeInt(items.size());
+            for (MediaItem item : items) {
+                if (!writeString(out, item.getType()) || !writeString(out, item.getTitle())
+                        || item.getAuthors().size() > MAX_STRING_BYTES) {
+                    return null;
+                }
+                out.writeShort(item.getAuthors().size());
+                for (String author : item.getAuthors()) {
+                    if (!writeString(out, author)) {
+                        return null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - LENGTH_BYTES);
+        record.putInt(CRC_OFFSET, crcOf(record, 0));
+        return record.array();
+    }
+
+    /**
+     * @return the length of the record at the position (including the length itself),
+     * 0 when there's no (complete) record, e.g. at the end of the segment
+     */
+    static int lengthAt(final ByteBuffer segment, final int position) {
+        if (position + KEY_OFFSET > segment.limit()) {
+            return 0;
+        }
+        final int length = segment.getInt(position);
+        return length < KEY_OFFSET - LENGTH_BYTES || length > segment.limit() - position - LENGTH_BYTES
+                ? 0
+                : length + LENGTH_BYTES;
+    }
+
+    static long storedAtAt(final ByteBuffer segment, final int position) {
+        return segment.getLong(position + STORED_AT_OFFSET);
+    }
+
+    /**
+     * @return the key of the record at the position, without reading its items
+     */
+    static MappedSearchResultStore.Key keyAt(final ByteBuffer segment, final int position) {
+        final Reader reader = new Reader(segment, position + KEY_OFFSET);
+        return new MappedSearchResultStore.Key(reader.readString(), reader.readString(), reader.getInt());
+    }
+
+    /**
+     * @return the items of the record at the position, null when the record is corrupt
+     */
+    static List<MediaItem> itemsAt(final ByteBuffer segment, final int position) {
+        final int length = lengthAt(segment, position);
+        if (length == 0 || segment.getInt(position + CRC_OFFSET) != crcOf(segment, position)) {
+            return null;
+        }
+        final Reader reader = new Reader(segment, position + KEY_OFFSET);
+        reader.readString();
+        reader.readString();
+        reader.getInt();
+        final int nrOfItems = reader.getInt();
+        final List<MediaItem> items = new ArrayList<>(nrOfItems);
+        for (int i = 0; i < nrOfItems; i++) {
+            final String type = reader.readString();
+            final String title = reader.readString();
+            final int nrOfAuthors = reader.getUnsignedShort();
+            final Set<String> authors = new HashSet<>(nrOfAuthors * 2);
+            for (int j = 0; j < nrOfAuthors; j++) {
+                authors.add(reader.readString());
+            }
+            items.add(new MediaItem(title, authors, type));
+        }
+        return items;
+    }
+
+    private static boolean writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            return false;
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        return true;
+    }
+
+    private static int crcOf(final ByteBuffer segment, final int position) {
+        final ByteBuffer record = segment.duplicate();
+        record.limit(position + LENGTH_BYTES + segment.getInt(position)).position(position + STORED_AT_OFFSET);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a record from a duplicate of the buffer, so the (shared) buffer of the segment isn't modified
+     */
+    private static class Reader {
+        private final ByteBuffer record;
+
+        private Reader(final ByteBuffer segment, final int position) {
+            this.record = segment.duplicate();
+            this.record.position(position);
+        }
+
+        private int getInt() {
+            return record.getInt();
+        }
+
+        private int getUnsignedShort() {
+            return record.getShort() & 0xFFFF;
+        }
+
+        private String readString() {
+            final byte[] bytes = new byte[getUnsignedShort()];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package nl.lindooren.springreactive.search;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The second tier of the {@link InMemorySearchResultCache}: results that survive a restart of the application,
+ * so a node doesn't start cold after a deploy.
+ */
+public interface SearchResultStore {
+
+    /**
+     * Doesn't store anything
+     */
+    SearchResultStore NONE = new SearchResultStore() {
+        @Override
+        public Optional<StoredResults> get(final String source, final String query, final int maxResults) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void put(final String source, final String query, final int maxResults, final List<MediaItem> items) {
+        }
+    };
+
+    /**
+     * @return the stored results, unless they're older than the time to live of the store
+     */
+    Optional<StoredResults> get(final String source, final String query, final int maxResults);
+
+    /**
+     * Stores the results (possibly in the background), replacing the results stored before for the same key
+     */
+    void put(final String source, final String query, final int maxResults, final List<MediaItem> items);
+
+    /**
+     * Results with the (wall clock) time they were stored, which is comparable across restarts
+     */
+    @Value
+    class StoredResults {
+        @NonNull
+        private List<MediaItem> items;
+        private long storedAtMillis;
+    }
+}
@@ -1,11 +1,64 @@
 package nl.lindooren.springreactive.search;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 /**
  * This service tries to find books and albums matching a given search query
  */
 public interface SearchService {
 
+    /**
+     * @param query the search query
+     * @return the distinct books and albums matching the query, the most relevant first
+     */
     Flux<MediaItem> searchAlbumsAndBooks(final String query);
+
+    /**
+     * @param query the search query
+     * @return the distinct books and albums matching the query (unsorted), emitted as soon as a source returns them
+     */
+    Flux<MediaItem> streamAlbumsAndBooks(final String query);
+
+    /**
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the distinct books and albums matching the query, the most relevant first
+     */
+    Flux<MediaItem> searchAlbumsAndBooks(final String query, final Duration budget);
+
+    /**
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the distinct books and albums matching the query (unsorted), emitted as soon as a source returns them
+     */
+    Flux<MediaItem> streamAlbumsAndBooks(final String query, final Duration budget);
+
+    /**
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the books and albums matching the query (the most relevant first) and what became of the search of every source
+     */
+    Mono<SearchResponse> searchAlbumsAndBooksWithStatus(final String query, final Duration budget);
+
+    /**
+     * Meant to be called on every keystroke: answered from the items of earlier searches when enough of them match,
+     * only when too few of them do the sources are searched
+     *
+     * @param query  the text the user typed so far
+     * @param limit  the max number of results
+     * @param budget the time the caller is prepared to wait for the results
+     * @return books and albums with a title or author containing a word that starts with the query,
+     * the most relevant first
+     */
+    Flux<MediaItem> autocompleteAlbumsAndBooks(final String query, final int limit, final Duration budget);
+
+    /**
+     * @param cursor where the page starts, {@link SearchCursor#START} for the first page
+     * @param limit  the max number of items of the page
+     * @param budget the time the caller is prepared to wait for the results
+     * @return the next distinct books and albums matching the query (the most relevant of the page first)
+     * and the cursor of the page after it
+     */
+    Mono<SearchPage> searchAlbumsAndBooksPage(final String query, final SearchCursor cursor, final int limit,
+                                              final Duration budget);
 }
@@ -1,85 +1,389 @@
 package nl.lindooren.springreactive.search;
 
 import lombok.extern.slf4j.Slf4j;
-import nl.lindooren.springreactive.apple.Album;
-import nl.lindooren.springreactive.apple.ItunesAlbumService;
-import nl.lindooren.springreactive.apple.ItunesAlbumServiceImpl;
-import nl.lindooren.springreactive.google.Book;
-import nl.lindooren.springreactive.google.GoogleBookService;
-import nl.lindooren.springreactive.google.GoogleBookServiceImpl;
+import nl.lindooren.springreactive.resilience.CircuitBreaker;
+import nl.lindooren.springreactive.resilience.CircuitBreakerOpenException;
+import nl.lindooren.springreactive.resilience.CircuitBreakers;
+import nl.lindooren.springreactive.resilience.ConcurrencyLimitExceededException;
+import nl.lindooren.springreactive.stats.CallDeadline;
+import nl.lindooren.springreactive.stats.StatsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.text.Normalizer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
-
-import static nl.lindooren.springreactive.search.MediaItem.Type;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class SearchServiceImpl implements SearchService {
 
     /**
-     * This service is expected to return a result within one second.
-     * Therefore we wait max 900ms on both services (note: not sequentially)
+     * This service is expected to return a result within one second, unless the caller provides another budget.
+     * Therefore we wait max 900ms on all sources (note: not sequentially)
      * allowing 100ms for the response to be created (which should be more than enough).
      */
-    private static final Duration MAX_WAIT_TIME_ON_THIRD_PARTY = Duration.ofMillis(900);
+    static final Duration DEFAULT_BUDGET = Duration.ofSeconds(1);
+    private static final Duration RESPONSE_OVERHEAD = Duration.ofMillis(100);
+    /**
+     * A source that usually responds quickly isn't waited on for the whole budget, but for this many times its p99
+     */
+    private static final int P99_HEADROOM = 2;
+    private static final Duration MIN_SOURCE_TIMEOUT = Duration.ofMillis(100);
+    // The number of calls in the current stats needed to go by their p99
+    private static final long MIN_NR_OF_REQUESTS = 20;
+    private static final int AUTOCOMPLETE_CANDIDATES_PER_RESULT = 4;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
-    private GoogleBookService googleBookService;
-    private ItunesAlbumService itunesAlbumService;
-    private int nrOfResultsPerType;
+    private List<Source> sources;
+    private StatsService statsService;
+    private SearchResultCache searchResultCache;
+    private RelevanceRanker relevanceRanker;
+    private int fanOutConcurrency;
+    private int pageSize;
+    private AutocompleteIndex autocompleteIndex;
+    private int autocompleteMinMatches;
 
+    /**
+     * @param mediaSources           all sources to search, in the order their results are merged in case of equal titles
+     * @param fanOutConcurrency      the max number of sources that are searched at the same time by one search
+     * @param pageSize               the number of results fetched per call to a source when paging through its results
+     * @param autocompleteMinMatches the number of matches in the {@link AutocompleteIndex} that's enough to answer
+     *                               an autocomplete search without searching the sources
+     */
     @Autowired
-    public SearchServiceImpl(GoogleBookService googleBookService, ItunesAlbumService itunesAlbumService,
-                             @Value("${search.albumsAndBooks.nrOfResultsPerType}") int nrOfResultsPerType) {
-        this.googleBookService = googleBookService;
-        this.itunesAlbumService = itunesAlbumService;
-        this.nrOfResultsPerType = nrOfResultsPerType;
+    public SearchServiceImpl(List<MediaSource> mediaSources,
+                             StatsService statsService, SearchResultCache searchResultCache,
+                             CircuitBreakers circuitBreakers, RelevanceRanker relevanceRanker,
+                             AutocompleteIndex autocompleteIndex,
+                             @Value("${search.albumsAndBooks.nrOfResultsPerType}") int nrOfResultsPerType,
+                             @Value("${search.fanOut.concurrency}") int fanOutConcurrency,
+                             @Value("${search.pagination.pageSize}") int pageSize,
+                             @Value("${search.autocomplete.minMatches}") int autocompleteMinMatches) {
+        this.statsService = statsService;
+        this.searchResultCache = searchResultCache;
+        this.relevanceRanker = relevanceRanker;
+        this.fanOutConcurrency = fanOutConcurrency;
+        this.pageSize = pageSize;
+        this.autocompleteIndex = autocompleteIndex;
+        this.autocompleteMinMatches = autocompleteMinMatches;
+        this.sources = mediaSources.stream()
+                .map(mediaSource -> new Source(mediaSource, mediaSource.getNrOfResults().orElse(nrOfResultsPerType),
+                        new RequestCoalescer<>(mediaSource.getName(), statsService),
+                        circuitBreakers.forWebservice(mediaSource.getName())))
+                .collect(Collectors.toList());
     }
 
     @Override
     public Flux<MediaItem> searchAlbumsAndBooks(final String query) {
-        final String querySanitized = query.toLowerCase();
+        return searchAlbumsAndBooks(query, DEFAULT_BUDGET);
+    }
+
+    @Override
+    public Flux<MediaItem> streamAlbumsAndBooks(final String query) {
+        return streamAlbumsAndBooks(query, DEFAULT_BUDGET);
+    }
+
+    @Override
+    public Flux<MediaItem> searchAlbumsAndBooks(final String query, final Duration budget) {
+        return Flux.defer(() -> rank(query, budget, (sourceName, status) -> { }));
+    }
+
+    @Override
+    public Flux<MediaItem> streamAlbumsAndBooks(final String query, final Duration budget) {
+        return Flux.defer(() -> {
+            final long deadline = deadlineOf(budget);
+            // Only touched by one thread at a time, the items of all sources are emitted one by one
+            final Set<String> seen = new HashSet<>();
+            return Flux.fromIterable(sources)
+                    .flatMap(source -> search(source, query, deadline, (sourceName, status) -> { }),
+                            fanOutConcurrency)
+                    .filter(item -> seen.add(RelevanceRanker.keyOf(item)));
+        });
+    }
+
+    @Override
+    public Mono<SearchResponse> searchAlbumsAndBooksWithStatus(final String query, final Duration budget) {
+        return Mono.defer(() -> {
+            final Map<String, SourceStatus> statuses = new ConcurrentHashMap<>();
+            return rank(query, budget, statuses::put)
+                    .collectList()
+                    .map(items -> new SearchResponse(items, new TreeMap<>(statuses)));
+        });
+    }
+
+    @Override
+    public Mono<SearchPage> searchAlbumsAndBooksPage(final String query, final SearchCursor cursor, final int limit,
+                                                     final Duration budget) {
+        return Mono.defer(() -> {
+            final long deadline = deadlineOf(budget);
+            final String querySanitized = sanitize(query);
+            final Map<String, SourceStatus> statuses = new ConcurrentHashMap<>();
+            // Every source is asked for a whole page, as the page might be filled by one of them.
+            // Pages aren't cached: the cache holds the first results of a source only.
+            return Flux.fromIterable(sources)
+                    .flatMapSequential(source -> configureTimeoutAndErrorBehaviour(
+                            source.circuitBreaker.protect(() -> source.mediaSource.search(querySanitized,
+                                    cursor.getOffset(source.getName()), limit, Math.min(pageSize, limit))),
+                            source, querySanitized, deadline, statuses::put).collectList(),
+                            fanOutConcurrency)
+                    .collectList()
+                    .map(runs -> toPage(query, cursor, limit, runs, new TreeMap<>(statuses)));
+        });
+    }
+
+    /**
+     * The results of a source are returned in the order of the source, so the next page of a source starts
+     * after the results that made it into this page. Therefore the page is merged from the heads of the runs:
+     * it repeatedly takes the most relevant head, so it's a prefix of every run and never skips a result.
+     * A head that duplicates a result of the page is skipped.
+     * <p>
+     * A source that didn't complete keeps its offset and the cursor, so a failure isn't taken for the last page.
+     */
+    private SearchPage toPage(final String query, final SearchCursor cursor, final int limit,
+                              final List<List<MediaItem>> runs, final Map<String, SourceStatus> statuses) {
+        final List<MediaItem> ranking = relevanceRanker.rank(query, runs,
+                runs.stream().mapToInt(List::size).sum());
+        final Map<String, Integer> positions = new HashMap<>();
+        for (MediaItem item : ranking) {
+            positions.put(RelevanceRanker.keyOf(item), positions.size());
+        }
+        final int[] consumed = new int[runs.size()];
+        final Set<String> includedKeys = new HashSet<>();
+        final List<MediaItem> items = new ArrayList<>(limit);
+        while (items.size() < limit) {
+            int best = -1;
+            int bestPosition = Integer.MAX_VALUE;
+            for (int i = 0; i < runs.size(); i++) {
+                final List<MediaItem> run = runs.get(i);
+                consumed[i] = skipDuplicates(run, consumed[i], includedKeys);
+                if (consumed[i] < run.size()) {
+                    final int position = positions.get(RelevanceRanker.keyOf(run.get(consumed[i])));
+                    if (position < bestPosition) {
+                        best = i;
+                        bestPosition = position;
+                    }
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            final MediaItem item = runs.get(best).get(consumed[best]++);
+            items.add(item);
+            includedKeys.add(RelevanceRanker.keyOf(item));
+        }
+        final Map<String, Integer> offsets = new TreeMap<>();
+        boolean hasMore = false;
+        for (int i = 0; i < sources.size(); i++) {
+            final List<MediaItem> run = runs.get(i);
+            // Otherwise the next page would start with a result of this page
+            consumed[i] = skipDuplicates(run, consumed[i], includedKeys);
+            final String sourceName = sources.get(i).getName();
+            offsets.put(sourceName, cursor.getOffset(sourceName) + consumed[i]);
+            // A source that returned a whole page probably has more
+            hasMore |= consumed[i] < run.size() || run.size() >= limit
+                    || statuses.get(sourceName) != SourceStatus.COMPLETED;
+        }
+        return new SearchPage(items, hasMore ? new SearchCursor(offsets).encode() : null, statuses);
+    }
+
+    /**
+     * @return the index of the first item of the run from the given index on that isn't one of the included items
+     */
+    private static int skipDuplicates(final List<MediaItem> run, final int from, final Set<String> includedKeys) {
+        int index = from;
+        while (index < run.size() && includedKeys.contains(RelevanceRanker.keyOf(run.get(index)))) {
+            index++;
+        }
+        return index;
+    }
+
+    @Override
+    public Flux<MediaItem> autocompleteAlbumsAndBooks(final String query, final int limit, final Duration budget) {
+        return Flux.defer(() -> {
+            final List<MediaItem> matches = lookupAutocompleteCandidates(query, limit);
+            if (areEnoughToAutocomplete(matches, limit)) {
+                return Flux.fromIterable(relevanceRanker.rank(query, Collections.singletonList(matches), limit));
+            }
+            // Too few matches, the results of the sources are added to the index for the next keystrokes
+            return searchAlbumsAndBooks(query, budget)
+                    .collectList()
+                    .flatMapIterable(results -> relevanceRanker.rank(query, Arrays.asList(matches, results), limit));
+        });
+    }
 
-        Flux<MediaItem> albums = configureTimeoutAndErrorBehaviour(
-                itunesAlbumService.searchAlbums(querySanitized, nrOfResultsPerType).map(this::convertToMediaItem),
-                ItunesAlbumServiceImpl.SERVICE_NAME, querySanitized);
+    /**
+     * The index returns matches in alphabetical order, more candidates make it likely the best are among them
+     */
+    List<MediaItem> lookupAutocompleteCandidates(final String query, final int limit) {
+        return autocompleteIndex.lookup(query, limit * AUTOCOMPLETE_CANDIDATES_PER_RESULT);
+    }
+
+    /**
+     * @return whether an autocomplete search can be answered from the matches in the index, without the sources
+     */
+    boolean areEnoughToAutocomplete(final List<MediaItem> matches, final int limit) {
+        return matches.size() >= Math.min(limit, autocompleteMinMatches);
+    }
+
+    /**
+     * Identical queries, up to casing, compatible Unicode forms (like ligatures and full-width letters)
+     * and whitespace, share their cached results
+     */
+    static String sanitize(final String query) {
+        final String folded = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(folded).replaceAll(" ").trim();
+    }
+
+    private Flux<MediaItem> rank(final String query, final Duration budget,
+                                 final BiConsumer<String, SourceStatus> onStatus) {
+        final long deadline = deadlineOf(budget);
+        // The results are collected in the order of the sources, so equally relevant items keep that order
+        return Flux.fromIterable(sources)
+                .flatMapSequential(source -> search(source, query, deadline, onStatus).collectList(),
+                        fanOutConcurrency)
+                .collectList()
+                .flatMapIterable(runs -> relevanceRanker.rank(query, runs));
+    }
+
+    /**
+     * The searches of the sources of one search (that starts now), for callers that run the fan-out themselves.
+     * Every search has its own timeout, reports its status and returns an empty list (or the results so far)
+     * when it fails or times out.
+     *
+     * @return a search per source, in the order of the sources
+     */
+    List<Mono<List<MediaItem>>> searchSources(final String query, final Duration budget,
+                                              final BiConsumer<String, SourceStatus> onStatus) {
+        final long deadline = deadlineOf(budget);
+        return sources.stream()
+                .map(source -> search(source, query, deadline, onStatus).collectList())
+                .collect(Collectors.toList());
+    }
+
+    List<String> getSourceNames() {
+        return sources.stream().map(Source::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the deadline of a search (in nanos) that starts now, so sources that have to wait
+     * for the fan-out don't get the whole budget anymore
+     */
+    private static long deadlineOf(final Duration budget) {
+        final Duration available = budget.compareTo(RESPONSE_OVERHEAD) > 0
+                ? budget.minus(RESPONSE_OVERHEAD)
+                : Duration.ZERO;
+        return System.nanoTime() + available.toNanos();
+    }
+
+    private Flux<MediaItem> search(final Source source, final String query, final long deadline,
+                                   final BiConsumer<String, SourceStatus> onStatus) {
+        final String querySanitized = sanitize(query);
+        return configureTimeoutAndErrorBehaviour(
+                searchResultCache.get(source.getName(), querySanitized, source.nrOfResults,
+                        () -> searchUpstream(source, querySanitized))
+                        .doOnNext(autocompleteIndex::add),
+                source, querySanitized, deadline, onStatus);
+    }
 
-        Flux<MediaItem> books = configureTimeoutAndErrorBehaviour(
-                googleBookService.searchBooks(querySanitized, nrOfResultsPerType).map(this::convertToMediaItem),
-                GoogleBookServiceImpl.SERVICE_NAME, querySanitized);
+    private Flux<MediaItem> searchUpstream(final Source source, final String querySanitized) {
+        return source.coalescer.coalesce(Tuples.of(querySanitized, source.nrOfResults),
+                () -> source.circuitBreaker.protect(
+                        () -> source.mediaSource.search(querySanitized, source.nrOfResults)));
+    }
 
-        return albums.mergeWith(books).sort();
+    /**
+     * @return the time left until the deadline, or less when the source usually responds well within that:
+     * there's no use in waiting much longer than its p99
+     */
+    Duration getTimeout(final Source source, final long deadline) {
+        final Duration available = Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+        final Duration timeout = statsService.getCurrentStatsForWebservice(source.getName())
+                .filter(stats -> stats.getNrOfRequests() >= MIN_NR_OF_REQUESTS)
+                .map(stats -> Duration.ofMillis(stats.getP99ResponseTime() * P99_HEADROOM))
+                .map(latencyBased -> latencyBased.compareTo(MIN_SOURCE_TIMEOUT) < 0 ? MIN_SOURCE_TIMEOUT : latencyBased)
+                .filter(latencyBased -> latencyBased.compareTo(available) < 0)
+                .orElse(available);
+        return source.mediaSource.getMaxTimeout()
+                .filter(maxTimeout -> maxTimeout.compareTo(timeout) < 0)
+                .orElse(timeout);
     }
 
     private Flux<MediaItem> configureTimeoutAndErrorBehaviour(
-            Flux<MediaItem> flux, final String serviceName, final String query) {
-        return flux
-                // Note: capturing stats here instead of on the webclient(s) would allow to also
-                // catch the time-out (cancellation) and log it as webservice failure.
-                .timeout(MAX_WAIT_TIME_ON_THIRD_PARTY)
-                .doOnError(TimeoutException.class,
-                        e -> log.warn("The {} service took too long to return results", serviceName))
-                .doOnError(t -> !(t instanceof TimeoutException),
-                        t -> log.error("Unexpected error while consuming the " + serviceName + " service " +
-                                "for query '" + query + "'", t))
-                // On error return an empty result.
+            Flux<MediaItem> flux, final Source source, final String query, final long deadline,
+            final BiConsumer<String, SourceStatus> onStatus) {
+        final String serviceName = source.getName();
+        // The webservice reports a call that is cancelled at the deadline as a time-out (not a cancellation)
+        return Flux.defer(() -> {
+            final Duration timeout = getTimeout(source, deadline);
+            return flux.timeout(timeout).subscriberContext(CallDeadline.after(timeout));
+        })
+                .doOnComplete(() -> onStatus.accept(serviceName, SourceStatus.COMPLETED))
+                .doOnError(TimeoutException.class, e -> {
+                    log.warn("The {} service took too long to return results", serviceName);
+                    onStatus.accept(serviceName, SourceStatus.TIMED_OUT);
+                })
+                .doOnError(CircuitBreakerOpenException.class, e -> {
+                    log.debug("Skipped the {} service, its circuit is open", serviceName);
+                    onStatus.accept(serviceName, SourceStatus.SKIPPED);
+                })
+                .doOnError(ConcurrencyLimitExceededException.class, e -> {
+                    log.debug("Skipped the {} service, too many calls are in flight", serviceName);
+                    onStatus.accept(serviceName, SourceStatus.SKIPPED);
+                })
+                .doOnError(t -> !(t instanceof TimeoutException) && !(t instanceof CircuitBreakerOpenException)
+                                && !(t instanceof ConcurrencyLimitExceededException),
+                        t -> {
+                            log.error("Unexpected error while consuming the " + serviceName + " service " +
+                                    "for query '" + query + "'", t);
+                            onStatus.accept(serviceName, SourceStatus.FAILED);
+                        })
+                // On error return an empty result (or the results up to the error).
                 // Note: this may cause the client to think there were no matches for the given query
-                // while in fact an error occurred.
-                // Another option would be to propagate the error down stream,
-                // letting the client handle it with a circuit breaker for example
+                // while in fact an error occurred, unless it asks for the status of the sources.
                 .onErrorResume(throwable -> Flux.empty());
     }
 
-    private MediaItem convertToMediaItem(Book book) {
-        return new MediaItem(book.getTitle(), book.getAuthors(), Type.BOOK);
-    }
+    /**
+     * A {@link MediaSource} with everything that's needed to search it
+     */
+    static class Source {
+        private final MediaSource mediaSource;
+        private final int nrOfResults;
+        // Identical searches (query and max results) that are in flight at the same time share one upstream call
+        private final RequestCoalescer<Tuple2<String, Integer>, MediaItem> coalescer;
+        private final CircuitBreaker circuitBreaker;
+
+        private Source(final MediaSource mediaSource, final int nrOfResults,
+                       final RequestCoalescer<Tuple2<String, Integer>, MediaItem> coalescer,
+                       final CircuitBreaker circuitBreaker) {
+            this.mediaSource = mediaSource;
+            this.nrOfResults = nrOfResults;
+            this.coalescer = coalescer;
+            this.circuitBreaker = circuitBreaker;
+        }
 
-    private MediaItem convertToMediaItem(Album album) {
-        return new MediaItem(album.getTitle(), Collections.singleton(album.getAuthor()), Type.ALBUM);
+        private String getName() {
+            return mediaSource.getName();
+        }
     }
 }
@@ -0,0 +1,20 @@
+package nl.lindooren.springreactive.search;
+
+/**
+ * What became of the search of one source
+ */
+public enum SourceStatus {
+    /**
+     * All results of the source are included
+     */
+    COMPLETED,
+    /**
+     * The source didn't return (all) results within its time-out, the results it returned so far are included
+     */
+    TIMED_OUT,
+    /**
+     * The source wasn't searched because it's struggling (its circuit is open or too many calls are in flight)
+     */
+    SKIPPED,
+    FAILED
+}
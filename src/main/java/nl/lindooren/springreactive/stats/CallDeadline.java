@@ -0,0 +1,33 @@
+package nl.lindooren.springreactive.stats;
+
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * The moment the subscriber of a call stops waiting for it, passed to the call in the subscriber context.
+ * A call that is cancelled at or after its deadline timed out, otherwise the subscriber just lost interest.
+ */
+public final class CallDeadline {
+
+    private static final String CONTEXT_KEY = CallDeadline.class.getName();
+
+    private CallDeadline() {
+    }
+
+    /**
+     * @return puts the deadline that is the given timeout after the subscription in the context
+     */
+    public static Function<Context, Context> after(final Duration timeout) {
+        return context -> context.put(CONTEXT_KEY, System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * @param nanoTime the current {@link System#nanoTime()}
+     * @return whether the deadline in the context (if any) has passed
+     */
+    public static boolean hasPassed(final Context context, final long nanoTime) {
+        return context.hasKey(CONTEXT_KEY) && nanoTime - context.<Long>get(CONTEXT_KEY) >= 0;
+    }
+}
@@ -0,0 +1,29 @@
+package nl.lindooren.springreactive.stats;
+
+/**
+ * How a call to a webservice ended
+ */
+public enum CallOutcome {
+    SUCCESS,
+    /**
+     * The webservice answered with an error status
+     */
+    HTTP_ERROR,
+    /**
+     * The response took longer than the caller was prepared to wait
+     */
+    TIMEOUT,
+    /**
+     * The caller lost interest before its deadline, e.g. the other call of a hedged request answered first.
+     * Says nothing about the health of the webservice, so it's neither a success nor a failure.
+     */
+    CANCELLED,
+    /**
+     * Any other error, e.g. the connection was refused or the response couldn't be decoded
+     */
+    ERROR;
+
+    public boolean isFailure() {
+        return this == HTTP_ERROR || this == TIMEOUT || this == ERROR;
+    }
+}
@@ -0,0 +1,13 @@
+package nl.lindooren.springreactive.stats;
+
+import lombok.Value;
+
+/**
+ * Represents a state transition of the circuit breaker of a webservice
+ */
+@Value
+public class CircuitBreakerEvent implements MonitorEvent {
+    private String webserviceName;
+    private String previousState;
+    private String state;
+}
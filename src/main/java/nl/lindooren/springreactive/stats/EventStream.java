@@ -0,0 +1,43 @@
+package nl.lindooren.springreactive.stats;
+
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.ReplayProcessor;
+
+import java.time.Duration;
+
+/**
+ * The events of one webservice (or of all webservices), both live and with a short history:
+ * a subscriber that connects to the history first gets the most recent events (at most the last
+ * {@code replaySize} events of the last {@code replayMaxAge}), so a dashboard doesn't start out empty.
+ * <p>
+ * Fed by the (single threaded) event bus only.
+ */
+class EventStream {
+
+    private final DirectProcessor<MonitorEvent> live = DirectProcessor.create();
+    private final ReplayProcessor<MonitorEvent> withHistory;
+
+    EventStream(final int replaySize, final Duration replayMaxAge) {
+        withHistory = ReplayProcessor.createSizeAndTimeout(replaySize, replayMaxAge);
+    }
+
+    void publish(final MonitorEvent event) {
+        live.onNext(event);
+        withHistory.onNext(event);
+    }
+
+    /**
+     * @return only the events from now on, meant for internal subscribers that act on every event once
+     */
+    Flux<MonitorEvent> live() {
+        return live;
+    }
+
+    /**
+     * @return the recent events followed by the events from now on
+     */
+    Flux<MonitorEvent> withHistory() {
+        return withHistory;
+    }
+}
@@ -0,0 +1,17 @@
+package nl.lindooren.springreactive.stats;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Something that happened concerning an upstream webservice, emitted on the monitor event streams
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "eventType")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = WebserviceCallEvent.class, name = "call"),
+        @JsonSubTypes.Type(value = CircuitBreakerEvent.class, name = "circuitBreaker")
+})
+public interface MonitorEvent {
+
+    String getWebserviceName();
+}
@@ -0,0 +1,69 @@
+package nl.lindooren.springreactive.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer for multiple producers and a single consumer.
+ * <p>
+ * A producer claims a slot by increasing the producer index (CAS) and only then writes the element,
+ * so the consumer treats an empty slot as "not there yet" and stops polling until it's written.
+ *
+ * @param <E> the type of elements
+ */
+class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong producerIndex = new AtomicLong();
+    // Only written by the consumer
+    private volatile long consumerIndex;
+
+    /**
+     * @param capacity will be rounded up to the next power of two
+     */
+    MpscRingBuffer(final int capacity) {
+        this.capacity = roundToPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * May be called by any thread
+     *
+     * @return false if the buffer is full (the element is not added)
+     */
+    boolean offer(final E element) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex >= capacity) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        buffer.lazySet((int) index & mask, element);
+        return true;
+    }
+
+    /**
+     * May only be called by one thread at a time
+     *
+     * @return the next element, or null if there's none (yet)
+     */
+    E poll() {
+        final long index = consumerIndex;
+        final int offset = (int) index & mask;
+        final E element = buffer.get(offset);
+        if (element == null) {
+            return null;
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex = index + 1;
+        return element;
+    }
+
+    static int roundToPowerOfTwo(final int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,46 @@
+package nl.lindooren.springreactive.stats;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * What to do with events for a subscriber of an event stream that can't keep up
+ * (a slow subscriber should never hold back the events of other subscribers).
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Buffer a limited number of events, dropping the oldest ones when the buffer is full
+     */
+    DROP_OLDEST {
+        @Override
+        <T> Flux<T> apply(final Flux<T> events, final Runnable onDrop) {
+            return events.onBackpressureBuffer(BUFFER_SIZE, dropped -> onDrop.run(), BufferOverflowStrategy.DROP_OLDEST);
+        }
+    },
+    /**
+     * Only emit the most recent event of every sample period
+     */
+    SAMPLE {
+        @Override
+        <T> Flux<T> apply(final Flux<T> events, final Runnable onDrop) {
+            return events.sample(SAMPLE_PERIOD).onBackpressureDrop(dropped -> onDrop.run());
+        }
+    },
+    /**
+     * Only keep the latest event until the subscriber is ready to receive it
+     */
+    LATEST {
+        @Override
+        <T> Flux<T> apply(final Flux<T> events, final Runnable onDrop) {
+            return events.onBackpressureBuffer(1, dropped -> onDrop.run(), BufferOverflowStrategy.DROP_OLDEST);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 256;
+    private static final Duration SAMPLE_PERIOD = Duration.ofMillis(100);
+
+    abstract <T> Flux<T> apply(final Flux<T> events, final Runnable onDrop);
+}
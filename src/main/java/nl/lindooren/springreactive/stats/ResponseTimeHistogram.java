@@ -0,0 +1,122 @@
+package nl.lindooren.springreactive.stats;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size, log-linear histogram of response times (in milliseconds), in the spirit of HdrHistogram.
+ * <p>
+ * Values below 64 get a bucket of their own. Larger values share a bucket with all values that have
+ * the same 6 most significant bits, which keeps the relative error of a percentile below ~3%.
+ * All counts live in one primitive array, so recording a value is O(1) and doesn't allocate.
+ * <p>
+ * Not thread safe: a histogram is meant to be owned by one aggregation (window) at a time.
+ */
+public class ResponseTimeHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * Larger values (~17 minutes) are counted in the last bucket, no upstream call is expected to take that long.
+     * The min, max and sum (so the average) keep the actual values, huge values could make the sum overflow.
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << 20) - 1;
+
+    private static final int BUCKET_COUNT = indexFor(MAX_TRACKABLE_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public void record(final long value) {
+        final long positiveValue = Math.max(value, 0);
+        counts[indexFor(Math.min(positiveValue, MAX_TRACKABLE_VALUE))]++;
+        totalCount++;
+        sum += positiveValue;
+        min = Math.min(min, positiveValue);
+        max = Math.max(max, positiveValue);
+    }
+
+    /**
+     * Adds all recorded values of the other histogram to this one
+     */
+    public void add(final ResponseTimeHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return totalCount == 0 ? 0 : max;
+    }
+
+    public long getAverage() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the (upper bound of the bucket of the) value at the given percentile, or 0 when nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount));
+        if (rank >= totalCount) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Math.max(highestEquivalentValue(i), min), max);
+            }
+        }
+        return max;
+    }
+
+    static int indexFor(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (int) ((value >>> shift) - SUB_BUCKET_HALF_COUNT);
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,94 @@
+package nl.lindooren.springreactive.stats;
+
+import java.time.Duration;
+
+/**
+ * Statistics of one webservice over a sliding window of (at most) one hour.
+ * <p>
+ * Calls are recorded in two rings of fixed size time buckets: 60 buckets of one second and 60 buckets
+ * of one minute. The stats over a window are merged from the buckets of the finest ring that covers it,
+ * so a query costs O(buckets) and memory is constant regardless of the number of calls.
+ * The request rate is over the time those buckets actually cover, which for whole minute buckets
+ * can be up to a minute more than the window.
+ * A bucket is reused (reset) as soon as its time slot comes around again.
+ */
+class SlidingWindowStats {
+
+    static final Duration MAX_WINDOW = Duration.ofHours(1);
+
+    private final Ring seconds = new Ring(Duration.ofSeconds(1), 60);
+    private final Ring minutes = new Ring(Duration.ofMinutes(1), 60);
+    // Reused to merge the buckets, so a query doesn't allocate a new histogram
+    private final WebserviceStatsRecorder merged = new WebserviceStatsRecorder();
+
+    static boolean isSupported(final Duration window) {
+        return !window.isNegative() && !window.isZero() && window.compareTo(MAX_WINDOW) <= 0;
+    }
+
+    synchronized void record(final WebserviceCallEvent event, final long nowMillis) {
+        seconds.record(event, nowMillis);
+        minutes.record(event, nowMillis);
+    }
+
+    /**
+     * @param window between one second and one hour, rounded up to whole seconds (or minutes for windows over a minute)
+     */
+    synchronized WebserviceStats getStats(final Duration window, final long nowMillis) {
+        if (!isSupported(window)) {
+            throw new IllegalArgumentException("Unsupported window: " + window);
+        }
+        final Ring ring = window.compareTo(seconds.span()) <= 0 ? seconds : minutes;
+        merged.reset();
+        final Duration span = ring.mergeInto(merged, window, nowMillis);
+        return merged.toWebserviceStats(window, span);
+    }
+
+    private static class Ring {
+        private final long resolutionMillis;
+        private final WebserviceStatsRecorder[] buckets;
+        // The time slot (time / resolution) each bucket currently holds
+        private final long[] slots;
+
+        private Ring(final Duration resolution, final int nrOfBuckets) {
+            this.resolutionMillis = resolution.toMillis();
+            this.buckets = new WebserviceStatsRecorder[nrOfBuckets];
+            this.slots = new long[nrOfBuckets];
+            for (int i = 0; i < nrOfBuckets; i++) {
+                buckets[i] = new WebserviceStatsRecorder();
+                slots[i] = -1;
+            }
+        }
+
+        private Duration span() {
+            return Duration.ofMillis(resolutionMillis * buckets.length);
+        }
+
+        private void record(final WebserviceCallEvent event, final long nowMillis) {
+            final long slot = nowMillis / resolutionMillis;
+            final int index = (int) (slot % buckets.length);
+            if (slots[index] != slot) {
+                buckets[index].reset();
+                slots[index] = slot;
+            }
+            buckets[index].record(event);
+        }
+
+        /**
+         * @return the time the merged buckets cover: the whole buckets before the current one, and the current one
+         * up to now (but at least one bucket, so the first calls of a bucket aren't extrapolated into a high rate)
+         */
+        private Duration mergeInto(final WebserviceStatsRecorder target, final Duration window, final long nowMillis) {
+            final long currentSlot = nowMillis / resolutionMillis;
+            final long nrOfSlots = Math.min(buckets.length,
+                    (window.toMillis() + resolutionMillis - 1) / resolutionMillis);
+            final long firstSlot = currentSlot - nrOfSlots + 1;
+            for (long slot = firstSlot; slot <= currentSlot; slot++) {
+                final int index = (int) (slot % buckets.length);
+                if (slots[index] == slot) {
+                    target.add(buckets[index]);
+                }
+            }
+            return Duration.ofMillis(Math.max(resolutionMillis, nowMillis - firstSlot * resolutionMillis));
+        }
+    }
+}
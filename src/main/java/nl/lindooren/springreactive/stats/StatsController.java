@@ -1,36 +1,73 @@
 package nl.lindooren.springreactive.stats;
 
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 public class StatsController {
 
+    private static final Pattern WINDOW_PATTERN = Pattern.compile("(\\d+)([smh])");
+    private static final Map<String, ChronoUnit> WINDOW_UNITS = new HashMap<>();
+
+    static {
+        WINDOW_UNITS.put("s", ChronoUnit.SECONDS);
+        WINDOW_UNITS.put("m", ChronoUnit.MINUTES);
+        WINDOW_UNITS.put("h", ChronoUnit.HOURS);
+    }
+
     private StatsService statsService;
+    private PrometheusMeterRegistry prometheusMeterRegistry;
 
     @Autowired
-    public StatsController(StatsService statsService) {
+    public StatsController(StatsService statsService, PrometheusMeterRegistry prometheusMeterRegistry) {
         this.statsService = statsService;
+        this.prometheusMeterRegistry = prometheusMeterRegistry;
+    }
+
+    /**
+     * All counters, gauges and response times (as histograms) of the webservices in the Prometheus text format
+     * <pre>
+     *     curl 'http://localhost:8080/monitor/prometheus'
+     * </pre>
+     */
+    @GetMapping(value = "/monitor/prometheus", produces = TextFormat.CONTENT_TYPE_004)
+    public String scrape() {
+        return prometheusMeterRegistry.scrape();
     }
 
     /**
      * Web Socket emitting information about actual webservice calls made to all upstream services
      * <pre>
      *     curl -H "Connection: Upgrade" -H "Upgrade: websocket" 'http://localhost:8080/monitor/events/stream'
+     *     curl -H "Connection: Upgrade" -H "Upgrade: websocket" 'http://localhost:8080/monitor/events/stream?overflow=LATEST'
      * </pre>
      *
+     * @param overflow what to do with events when the client can't keep up
      * @return a stream of all calls that are made to upstream webservices
      */
     @GetMapping(value = "/monitor/events/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<WebserviceCallEvent> getEventsWebsocketStream() {
-        return statsService.getEventStreamForAllWebservices();
+    public Flux<MonitorEvent> getEventsWebsocketStream(
+            @RequestParam(defaultValue = "DROP_OLDEST") OverflowPolicy overflow) {
+        return statsService.getEventStreamForAllWebservices(overflow);
     }
 
     /**
@@ -40,11 +77,29 @@ public class StatsController {
      *     curl -H "Connection: Upgrade" -H "Upgrade: websocket" 'http://localhost:8080/monitor/events/albums/stream'
      * </pre>
      *
-     * @return a stream of all calls that are made to a specific upstream webservices
+     * @param overflow what to do with events when the client can't keep up
+     * @return a stream of all calls that are made to a specific upstream webservices,
+     * which ends right away when no call to the webservice has been made yet
      */
     @GetMapping(value = "/monitor/events/{webserviceName}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<WebserviceCallEvent> getEventsWebsocketStream(@PathVariable String webserviceName) {
-        return statsService.createEventStreamForWebservice(webserviceName);
+    public Flux<MonitorEvent> getEventsWebsocketStream(
+            @PathVariable String webserviceName,
+            @RequestParam(defaultValue = "DROP_OLDEST") OverflowPolicy overflow) {
+        return statsService.createEventStreamForWebservice(webserviceName, overflow);
+    }
+
+    /**
+     * The number of events that were published and the number of events that were dropped
+     * because there were too many at once, or because a client of the event streams couldn't keep up.
+     * <pre>
+     *     curl 'http://localhost:8080/monitor/events/counters'
+     * </pre>
+     *
+     * @return the counters of the event streams
+     */
+    @GetMapping(value = "/monitor/events/counters")
+    public Map<String, Long> getEventsCounters() {
+        return statsService.getEventStreamCounters();
     }
 
     /**
@@ -72,16 +127,65 @@ public class StatsController {
      * <pre>
      *     curl 'http://localhost:8080/monitor/stats/books'
      *     curl 'http://localhost:8080/monitor/stats/albums'
+     *     curl 'http://localhost:8080/monitor/stats/albums?window=1m'
      * </pre>
      *
+     * @param window optional sliding window (e.g. 30s, 1m, 1h or ISO-8601 like PT5M) of at most one hour,
+     *               defaults to the period of the stats stream
      * @return a stream of aggregated information about calls that are made to a specific upstream webservice <br/>
      * or 204 No Content if no call to the upstream webservice hasn't been made yet.
      */
     @GetMapping(value = "/monitor/stats/{webserviceName}")
-    public ResponseEntity<WebserviceStats> getStats(@PathVariable String webserviceName) {
-        return statsService.getCurrentStatsForWebservice(webserviceName)
+    public Mono<ResponseEntity<WebserviceStats>> getStats(@PathVariable String webserviceName,
+                                                          @RequestParam(required = false) String window) {
+        final Mono<WebserviceStats> stats = window == null
+                ? statsService.fetchCurrentStatsForWebservice(webserviceName)
+                : statsService.fetchStatsForWebservice(webserviceName, parseWindow(window));
+        return stats
                 .map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.noContent().build());
+                .defaultIfEmpty(ResponseEntity.noContent().build());
+    }
+
+    /**
+     * Counters of a specific upstream webservice, e.g. the number of upstream calls that were actually issued
+     * versus the number of requests that shared an identical call that was already in flight,
+     * or the hits, misses, evictions and refreshes of the cached results of the webservice.
+     * <pre>
+     *     curl 'http://localhost:8080/monitor/stats/books/counters'
+     * </pre>
+     *
+     * @return the current value of all counters of the webservice (an empty object if there are none yet)
+     */
+    @GetMapping(value = "/monitor/stats/{webserviceName}/counters")
+    public Map<String, Long> getCounters(@PathVariable String webserviceName) {
+        return statsService.getCountersForWebservice(webserviceName);
+    }
+
+    /**
+     * Web Socket emitting the counters of a specific upstream webservice at a regular interval
+     * <pre>
+     *     curl -H "Connection: Upgrade" -H "Upgrade: websocket" 'http://localhost:8080/monitor/stats/books/counters/stream'
+     * </pre>
+     *
+     * @return a stream of the current values of all counters of the webservice
+     */
+    @GetMapping(value = "/monitor/stats/{webserviceName}/counters/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<Map<String, Long>> getCountersWebsocketStream(@PathVariable String webserviceName) {
+        return statsService.getCountersStreamForWebservice(webserviceName);
+    }
+
+    /**
+     * Gauges of a specific upstream webservice, e.g. the connections of its pool that are in use or idle
+     * and the number of requests waiting for a connection.
+     * <pre>
+     *     curl 'http://localhost:8080/monitor/stats/books/gauges'
+     * </pre>
+     *
+     * @return the current value of all gauges of the webservice (an empty object if there are none)
+     */
+    @GetMapping(value = "/monitor/stats/{webserviceName}/gauges")
+    public Map<String, Long> getGauges(@PathVariable String webserviceName) {
+        return statsService.getGaugesForWebservice(webserviceName);
     }
 
     /**
@@ -92,12 +196,36 @@ public class StatsController {
      * @return a response with status code 200 if healthy (none 200 otherwise)
      */
     @GetMapping(value = "/health")
-    public ResponseEntity<String> getHealth() {
-        if (statsService.areAllWebservicesConsideredHealthy()) {
-            return ResponseEntity.ok("No webservice is unhealthy. Ready to go!");
-        } else {
-            // Don't respond with 200 (for most load balancers etc this is the initial check 200 = OK)
-            return ResponseEntity.status(HttpStatus.I_AM_A_TEAPOT).body("There's an unhealthy webservice");
+    public Mono<ResponseEntity<String>> getHealth() {
+        return statsService.checkAllWebservicesConsideredHealthy().map(healthy -> {
+            if (healthy) {
+                return ResponseEntity.ok("No webservice is unhealthy. Ready to go!");
+            } else {
+                // Don't respond with 200 (for most load balancers etc this is the initial check 200 = OK)
+                return ResponseEntity.status(HttpStatus.I_AM_A_TEAPOT).body("There's an unhealthy webservice");
+            }
+        });
+    }
+
+    private Duration parseWindow(final String window) {
+        final Matcher matcher = WINDOW_PATTERN.matcher(window);
+        try {
+            final Duration duration = matcher.matches()
+                    ? Duration.of(Long.parseLong(matcher.group(1)), WINDOW_UNITS.get(matcher.group(2)))
+                    : Duration.parse(window);
+            if (!SlidingWindowStats.isSupported(duration)) {
+                throw new InvalidWindowException();
+            }
+            return duration;
+        } catch (DateTimeParseException | ArithmeticException | NumberFormatException e) {
+            throw new InvalidWindowException();
+        }
+    }
+
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "The window should be positive and at most one hour (e.g. 30s, 5m or 1h)")
+    private class InvalidWindowException extends RuntimeException {
+        private InvalidWindowException() {
+            super("The window should be positive and at most one hour (e.g. 30s, 5m or 1h)");
         }
     }
 
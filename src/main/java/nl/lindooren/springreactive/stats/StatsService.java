@@ -1,22 +1,118 @@
 package nl.lindooren.springreactive.stats;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.LongSupplier;
 
 public interface StatsService {
 
+    /**
+     * Publishes how a call to a webservice ended, with its timing and size
+     */
+    void notifyOfCall(final WebserviceCallEvent event);
+
+    /**
+     * Shorthand of {@link #notifyOfCall(WebserviceCallEvent)} for a successful call
+     */
     void notifyOfSuccessfulCall(final String serviceName, final Optional<Long> responseTime);
 
+    /**
+     * Shorthand of {@link #notifyOfCall(WebserviceCallEvent)} for a call that failed with an error
+     */
     void notifyOfFailedCall(final String serviceName);
 
-    Flux<WebserviceCallEvent> getEventStreamForAllWebservices();
+    void notifyOfCircuitBreakerStateChange(final String serviceName, final String previousState, final String state);
+
+    /**
+     * Increments a named counter of the given webservice, e.g. to keep track of calls that were prevented
+     */
+    void incrementCounter(final String serviceName, final String counterName);
+
+    /**
+     * @return the current values of all counters of the given webservice (empty if none were incremented yet)
+     */
+    Map<String, Long> getCountersForWebservice(final String webserviceName);
+
+    /**
+     * @return the counters of the given webservice, emitted at the same interval as the {@link WebserviceStats}
+     */
+    Flux<Map<String, Long>> getCountersStreamForWebservice(final String webserviceName);
+
+    /**
+     * Registers a named gauge of the given webservice, e.g. the number of connections in use.
+     * The gauge is read whenever the gauges are requested (or the meters are scraped),
+     * a gauge registered earlier under the same name is replaced.
+     */
+    void registerGauge(final String serviceName, final String gaugeName, final LongSupplier gauge);
+
+    /**
+     * @return the current values of all gauges of the given webservice (empty if none were registered)
+     */
+    Map<String, Long> getGaugesForWebservice(final String webserviceName);
+
+    /**
+     * @return all events, the subscriber has to keep up (meant for internal use)
+     */
+    Flux<MonitorEvent> getEventStreamForAllWebservices();
 
-    Flux<WebserviceCallEvent> createEventStreamForWebservice(final String webserviceName);
+    /**
+     * @param overflowPolicy what to do with events when the subscriber can't keep up
+     * @return the recent events followed by all new events
+     */
+    Flux<MonitorEvent> getEventStreamForAllWebservices(final OverflowPolicy overflowPolicy);
+
+    /**
+     * @return the events of the given webservice, the subscriber has to keep up (meant for internal use),
+     * empty when no call to the webservice has been made yet
+     */
+    Flux<MonitorEvent> createEventStreamForWebservice(final String webserviceName);
+
+    /**
+     * @param overflowPolicy what to do with events when the subscriber can't keep up
+     * @return the recent events of the given webservice followed by its new events,
+     * empty when no call to the webservice has been made yet
+     */
+    Flux<MonitorEvent> createEventStreamForWebservice(final String webserviceName,
+                                                      final OverflowPolicy overflowPolicy);
+
+    /**
+     * @return the number of published events and the number of events that were dropped
+     * (because publishers or subscribers couldn't keep up)
+     */
+    Map<String, Long> getEventStreamCounters();
 
     Optional<Flux<WebserviceStats>> getStatsStreamForWebservice(final String webserviceName);
 
+    /**
+     * @return the stats of the last period (sliding), empty if there are none yet
+     */
     Optional<WebserviceStats> getCurrentStatsForWebservice(final String webserviceName);
 
+    /**
+     * Same as {@link #getCurrentStatsForWebservice(String)}, meant for reactive callers
+     */
+    Mono<WebserviceStats> fetchCurrentStatsForWebservice(final String webserviceName);
+
+    /**
+     * @param window the sliding window to get the stats over (at most one hour)
+     * @return the stats over the given window, empty if no call has been made to the webservice yet
+     * @throws IllegalArgumentException if the window isn't supported
+     */
+    Optional<WebserviceStats> getStatsForWebservice(final String webserviceName, final Duration window);
+
+    /**
+     * Same as {@link #getStatsForWebservice(String, Duration)}, meant for reactive callers
+     */
+    Mono<WebserviceStats> fetchStatsForWebservice(final String webserviceName, final Duration window);
+
     boolean areAllWebservicesConsideredHealthy();
+
+    /**
+     * Same as {@link #areAllWebservicesConsideredHealthy()}, meant for reactive callers
+     */
+    Mono<Boolean> checkAllWebservicesConsideredHealthy();
 }
@@ -1,59 +1,211 @@
 package nl.lindooren.springreactive.stats;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
-import org.pcollections.TreePVector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
-import reactor.util.function.Tuple2;
-import reactor.util.function.Tuples;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.PostConstruct;
 import java.time.Duration;
-import java.util.LongSummaryStatistics;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
+/**
+ * Besides the streams and aggregations of its own, all counters, gauges and call stats are published as meters
+ * to the {@link MeterRegistry} (tagged with the name of the webservice), see /monitor/prometheus.
+ */
 @Slf4j
 @Service
 @Scope(ConfigurableBeanFactory.SCOPE_SINGLETON)
 public class StatsServiceImpl implements StatsService {
 
+    /**
+     * The (sliding) window of the stats that are streamed and used to determine the health of a webservice
+     */
     private static final Duration STATS_INTERVAL = Duration.ofSeconds(5);
-    private DirectProcessor<WebserviceCallEvent> processor;
-    private Flux<WebserviceCallEvent> hotEvents;
+    private static final Duration STATS_UPDATE_INTERVAL = Duration.ofSeconds(1);
+    /**
+     * The number of events each producer stripe can hold before events are dropped
+     */
+    private static final int EVENT_BUFFER_SIZE_PER_STRIPE = 8192;
+    private StripedEventBus<MonitorEvent> eventBus;
+    // Only fed by the (single threaded) event bus, so never called concurrently.
+    // Every event is routed to the stream of its webservice once, instead of filtered for every subscriber.
+    private EventStream eventsOfAllWebservices;
+    private Map<String, EventStream> eventsForWebservices;
+    private LongAdder eventsDroppedForSubscribers;
+    // Only updated by the (single threaded) event bus
+    private Map<String, SlidingWindowStats> slidingWindowsForWebservices;
     private Map<String, Flux<WebserviceStats>> statsForWebservices;
+    // The last emitted stats, so they can be looked up without waiting on the stream
+    private Map<String, WebserviceStats> currentStatsForWebservices;
+    private Map<String, Map<String, LongAdder>> countersForWebservices;
+    private Map<String, Map<String, LongSupplier>> gaugesForWebservices;
+    // Only updated by the (single threaded) event bus
+    private Map<String, WebserviceMeters> metersForWebservices;
+    private final MeterRegistry meterRegistry;
+    private final int eventReplaySize;
+    private final Duration eventReplayMaxAge;
+
+    /**
+     * @param eventReplaySize          the max number of recent events a new subscriber of an event stream gets
+     * @param eventReplayMaxAgeSeconds the max age of those events
+     */
+    @Autowired
+    public StatsServiceImpl(MeterRegistry meterRegistry,
+                            @Value("${stats.events.replaySize}") int eventReplaySize,
+                            @Value("${stats.events.replayMaxAgeSeconds}") long eventReplayMaxAgeSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.eventReplaySize = eventReplaySize;
+        this.eventReplayMaxAge = Duration.ofSeconds(eventReplayMaxAgeSeconds);
+    }
 
     @PostConstruct
-    private void init() {
+    void init() {
+        slidingWindowsForWebservices = new ConcurrentHashMap<>();
         statsForWebservices = new ConcurrentHashMap<>();
-        processor = DirectProcessor.create();
-        hotEvents = processor.publish().autoConnect().doOnNext(this::startCollectingStatsForNewWebservice);
-        // This subscribe will trigger the onNext without having to wait on 'real' subscribers
-        hotEvents.subscribe();
+        currentStatsForWebservices = new ConcurrentHashMap<>();
+        countersForWebservices = new ConcurrentHashMap<>();
+        gaugesForWebservices = new ConcurrentHashMap<>();
+        metersForWebservices = new ConcurrentHashMap<>();
+        eventsDroppedForSubscribers = new LongAdder();
+        eventsOfAllWebservices = new EventStream(eventReplaySize, eventReplayMaxAge);
+        eventsForWebservices = new ConcurrentHashMap<>();
+        eventBus = new StripedEventBus<>(EVENT_BUFFER_SIZE_PER_STRIPE, this::dispatch,
+                Schedulers.newSingle("stats-events", true));
+        FunctionCounter.builder("stats.events.published", eventBus, StripedEventBus::getNrOfPublishedEvents)
+                .register(meterRegistry);
+        FunctionCounter.builder("stats.events.dropped", eventBus, StripedEventBus::getNrOfDroppedEvents)
+                .tag("where", "publish").register(meterRegistry);
+        FunctionCounter.builder("stats.events.dropped", eventsDroppedForSubscribers, LongAdder::sum)
+                .tag("where", "subscribers").register(meterRegistry);
+    }
+
+    @Override
+    public void notifyOfCall(final WebserviceCallEvent event) {
+        eventBus.publish(event);
     }
 
     @Override
     public void notifyOfSuccessfulCall(final String serviceName, final Optional<Long> responseTime) {
-        processor.onNext(new WebserviceCallEvent(serviceName, true, responseTime));
+        eventBus.publish(new WebserviceCallEvent(serviceName, true, responseTime));
     }
 
     @Override
     public void notifyOfFailedCall(String serviceName) {
-        processor.onNext(new WebserviceCallEvent(serviceName, false, Optional.empty()));
+        eventBus.publish(new WebserviceCallEvent(serviceName, false, Optional.empty()));
+    }
+
+    @Override
+    public void notifyOfCircuitBreakerStateChange(final String serviceName, final String previousState,
+                                                  final String state) {
+        eventBus.publish(new CircuitBreakerEvent(serviceName, previousState, state));
+    }
+
+    @Override
+    public void incrementCounter(final String serviceName, final String counterName) {
+        countersForWebservices
+                .computeIfAbsent(serviceName, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(counterName, name -> registerCounter(serviceName, name))
+                .increment();
+    }
+
+    @Override
+    public Map<String, Long> getCountersForWebservice(final String webserviceName) {
+        return countersForWebservices.getOrDefault(webserviceName, Collections.emptyMap())
+                .entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum(),
+                        (first, second) -> first, TreeMap::new));
+    }
+
+    @Override
+    public Flux<Map<String, Long>> getCountersStreamForWebservice(final String webserviceName) {
+        return Flux.interval(STATS_INTERVAL).map(tick -> getCountersForWebservice(webserviceName));
+    }
+
+    @Override
+    public void registerGauge(final String serviceName, final String gaugeName, final LongSupplier gauge) {
+        final Map<String, LongSupplier> gauges = gaugesForWebservices
+                .computeIfAbsent(serviceName, name -> new ConcurrentHashMap<>());
+        if (gauges.put(gaugeName, gauge) == null) {
+            // The registry keeps the first meter of a name (and only weakly), so it reads whichever gauge is current
+            Gauge.builder(WebserviceMeters.PREFIX + gaugeName, gauges, current -> current.get(gaugeName).getAsLong())
+                    .tag(WebserviceMeters.WEBSERVICE_TAG, serviceName)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * The counter is incremented without the registry, the registry reads its sum when it's scraped
+     */
+    private LongAdder registerCounter(final String serviceName, final String counterName) {
+        final LongAdder counter = new LongAdder();
+        FunctionCounter.builder(WebserviceMeters.PREFIX + counterName, counter, LongAdder::sum)
+                .tag(WebserviceMeters.WEBSERVICE_TAG, serviceName)
+                .register(meterRegistry);
+        return counter;
     }
 
     @Override
-    public Flux<WebserviceCallEvent> getEventStreamForAllWebservices() {
-        return hotEvents;
+    public Map<String, Long> getGaugesForWebservice(final String webserviceName) {
+        return gaugesForWebservices.getOrDefault(webserviceName, Collections.emptyMap())
+                .entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().getAsLong(),
+                        (first, second) -> first, TreeMap::new));
     }
 
     @Override
-    public Flux<WebserviceCallEvent> createEventStreamForWebservice(final String webserviceName) {
-        return hotEvents.filter(event -> event.getWebserviceName().equals(webserviceName));
+    public Flux<MonitorEvent> getEventStreamForAllWebservices() {
+        return eventsOfAllWebservices.live();
+    }
+
+    @Override
+    public Flux<MonitorEvent> getEventStreamForAllWebservices(final OverflowPolicy overflowPolicy) {
+        return overflowPolicy.apply(eventsOfAllWebservices.withHistory(), eventsDroppedForSubscribers::increment);
+    }
+
+    @Override
+    public Flux<MonitorEvent> createEventStreamForWebservice(final String webserviceName) {
+        return eventsForWebservice(webserviceName).map(EventStream::live).orElse(Flux.empty());
+    }
+
+    @Override
+    public Flux<MonitorEvent> createEventStreamForWebservice(final String webserviceName,
+                                                             final OverflowPolicy overflowPolicy) {
+        return eventsForWebservice(webserviceName)
+                .map(events -> overflowPolicy.apply(events.withHistory(), eventsDroppedForSubscribers::increment))
+                .orElse(Flux.empty());
+    }
+
+    /**
+     * @return the events of the webservice, once an event of it has been dispatched (so the names asked for
+     * by clients don't create streams)
+     */
+    private Optional<EventStream> eventsForWebservice(final String webserviceName) {
+        return Optional.ofNullable(eventsForWebservices.get(webserviceName));
+    }
+
+    @Override
+    public Map<String, Long> getEventStreamCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        counters.put("published", eventBus.getNrOfPublishedEvents());
+        counters.put("droppedOnPublish", eventBus.getNrOfDroppedEvents());
+        counters.put("droppedForSubscribers", eventsDroppedForSubscribers.sum());
+        return counters;
     }
 
     @Override
@@ -63,83 +215,65 @@ public class StatsServiceImpl implements StatsService {
 
     @Override
     public Optional<WebserviceStats> getCurrentStatsForWebservice(String webserviceName) {
-        return Optional.ofNullable(
-                statsForWebservices
-                        .getOrDefault(webserviceName, Flux.empty())
-                        .take(1).singleOrEmpty()
-                        .take(Duration.ofMillis(50)).block()
-        );
+        return Optional.ofNullable(currentStatsForWebservices.get(webserviceName));
+    }
+
+    @Override
+    public Mono<WebserviceStats> fetchCurrentStatsForWebservice(String webserviceName) {
+        return Mono.fromSupplier(() -> currentStatsForWebservices.get(webserviceName));
+    }
+
+    @Override
+    public Optional<WebserviceStats> getStatsForWebservice(final String webserviceName, final Duration window) {
+        if (!SlidingWindowStats.isSupported(window)) {
+            throw new IllegalArgumentException("The window should be positive and at most " + SlidingWindowStats.MAX_WINDOW);
+        }
+        return Optional.ofNullable(slidingWindowsForWebservices.get(webserviceName))
+                .map(slidingWindow -> slidingWindow.getStats(window, System.currentTimeMillis()));
+    }
+
+    @Override
+    public Mono<WebserviceStats> fetchStatsForWebservice(final String webserviceName, final Duration window) {
+        return Mono.fromSupplier(() -> getStatsForWebservice(webserviceName, window).orElse(null));
     }
 
     @Override
     public boolean areAllWebservicesConsideredHealthy() {
-        return statsForWebservices.keySet().stream().map(s -> getCurrentStatsForWebservice(s))
+        return statsForWebservices.keySet().stream().map(this::getCurrentStatsForWebservice)
                 .allMatch(webserviceStats -> webserviceStats.isPresent() && webserviceStats.get().isHealthy());
     }
 
-    private void startCollectingStatsForNewWebservice(WebserviceCallEvent webserviceCallEvent) {
-        final String webserviceName = webserviceCallEvent.getWebserviceName();
-        if (!statsForWebservices.containsKey(webserviceName)) {
-            // Start collecting statistics on given interval for this webservice
-            Flux<WebserviceStats> statsStream = createEventStreamForWebservice(webserviceName)
-                    .window(STATS_INTERVAL)
-                    .flatMap(webserviceCallEventFlux ->
-                            webserviceCallEventFlux.reduce(
-                                    createInitialWebserviceStatsForAggregation(),
-                                    this::aggregateWebserviceCallEvents
-                            )
-                    ).map(Tuple2::getT1)
-                    .cache(1);
-            statsForWebservices.put(webserviceName, statsStream);
-            log.info("Created aggregation stream for webservice: {}", webserviceName);
-            // Use a noop subscriber to have the stream start emitting events even when there's no 'real' subscriber yet
-            statsStream.subscribe();
-        }
+    @Override
+    public Mono<Boolean> checkAllWebservicesConsideredHealthy() {
+        return Mono.fromSupplier(this::areAllWebservicesConsideredHealthy);
     }
 
-    /**
-     * Poor man's aggregation attempt, the focus here is immutability
-     *
-     * @param stateWithAllResponseTimes the current aggregation state with all response times
-     * @param event                     the next event in the stream to aggregate
-     */
-    private Tuple2<WebserviceStats, TreePVector<Long>> aggregateWebserviceCallEvents(
-            Tuple2<WebserviceStats, TreePVector<Long>> stateWithAllResponseTimes,
-            WebserviceCallEvent event) {
-
-        WebserviceStats currentState = stateWithAllResponseTimes.getT1();
-        TreePVector<Long> responseTimes = stateWithAllResponseTimes.getT2();
-
-        final long newNrOfRequests = currentState.getNrOfRequests() + 1;
-        final long newNrOfErrors = currentState.getNrOfErrors() + (event.isSuccess() ? 0 : 1);
-        final double errorRate = ((double)newNrOfErrors * 100) / newNrOfRequests;
-
-        WebserviceStats newState =
-                currentState
-                        .withNrOfRequests(newNrOfRequests)
-                        .withNrOfErrors(newNrOfErrors)
-                        .withRequestsPerSecond((double) newNrOfRequests / currentState.getWindowSize().getSeconds())
-                        .withErrorRate(errorRate)
-                        // Very simplistic way of determining the health of this webservice
-                        .withHealthy(errorRate < 10);
-
-        if (event.getResponseTime().isPresent()) {
-            final long responseTime = event.getResponseTime().get();
-            responseTimes = responseTimes.plus(responseTime);
-            LongSummaryStatistics longSummary = responseTimes.stream().mapToLong(value -> value).summaryStatistics();
-            newState = newState
-                    .withAvgResponseTime((long) longSummary.getAverage())
-                    .withMaxResponseTime(longSummary.getMax())
-                    .withMinResponseTime(longSummary.getMin());
+    private void dispatch(MonitorEvent event) {
+        if (event instanceof WebserviceCallEvent) {
+            final WebserviceCallEvent callEvent = (WebserviceCallEvent) event;
+            slidingWindowsForWebservices
+                    .computeIfAbsent(event.getWebserviceName(), this::startCollectingStatsForNewWebservice)
+                    .record(callEvent, System.currentTimeMillis());
+            metersForWebservices
+                    .computeIfAbsent(event.getWebserviceName(), name -> new WebserviceMeters(name, meterRegistry))
+                    .record(callEvent);
         }
-
-        return Tuples.of(newState, responseTimes);
+        eventsOfAllWebservices.publish(event);
+        eventsForWebservices.computeIfAbsent(event.getWebserviceName(),
+                name -> new EventStream(eventReplaySize, eventReplayMaxAge)).publish(event);
     }
 
-    private Tuple2<WebserviceStats, TreePVector<Long>> createInitialWebserviceStatsForAggregation() {
-        return Tuples.of(
-                new WebserviceStats(true, STATS_INTERVAL, 0, 0, 0, 0, 0, 0, 0),
-                TreePVector.empty()
-        );
+    private SlidingWindowStats startCollectingStatsForNewWebservice(final String webserviceName) {
+        final SlidingWindowStats slidingWindow = new SlidingWindowStats();
+        // Emit the statistics of the last interval (sliding) at a regular (shorter) interval
+        Flux<WebserviceStats> statsStream = Flux.interval(STATS_UPDATE_INTERVAL)
+                .map(tick -> slidingWindow.getStats(STATS_INTERVAL, System.currentTimeMillis()))
+                .doOnNext(webserviceStats -> currentStatsForWebservices.put(webserviceName, webserviceStats))
+                .cache(1);
+        statsForWebservices.put(webserviceName, statsStream);
+        log.info("Created aggregation stream for webservice: {}", webserviceName);
+        // Use a noop subscriber to have the stream start emitting events even when there's no 'real' subscriber yet
+        statsStream.subscribe();
+        return slidingWindow;
     }
 }
@@ -0,0 +1,79 @@
+package nl.lindooren.springreactive.stats;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free path for events published by many threads at the same time (e.g. all webclient threads).
+ * <p>
+ * Producers write into one of several ring buffers (striped on thread) so they hardly ever contend
+ * with each other. The buffers are drained by a single worker of the given scheduler, which means
+ * the consumer is never called concurrently and the producers never run any of the consumer's work.
+ * When the buffer of a producer is full the event is dropped (and counted) instead of blocking the producer.
+ *
+ * @param <E> the type of events
+ */
+@Slf4j
+class StripedEventBus<E> {
+
+    private final MpscRingBuffer<E>[] stripes;
+    private final int stripeMask;
+    private final Consumer<E> consumer;
+    private final Scheduler drainScheduler;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    StripedEventBus(final int capacityPerStripe, final Consumer<E> consumer, final Scheduler drainScheduler) {
+        final int nrOfStripes = MpscRingBuffer.roundToPowerOfTwo(Runtime.getRuntime().availableProcessors());
+        this.stripes = new MpscRingBuffer[nrOfStripes];
+        for (int i = 0; i < nrOfStripes; i++) {
+            stripes[i] = new MpscRingBuffer<>(capacityPerStripe);
+        }
+        this.stripeMask = nrOfStripes - 1;
+        this.consumer = consumer;
+        this.drainScheduler = drainScheduler;
+    }
+
+    void publish(final E event) {
+        if (!stripes[(int) Thread.currentThread().getId() & stripeMask].offer(event)) {
+            dropped.increment();
+            return;
+        }
+        published.increment();
+        // Only the producer that finds the bus idle schedules the drain, others just signal there's more work
+        if (wip.getAndIncrement() == 0) {
+            drainScheduler.schedule(this::drain);
+        }
+    }
+
+    long getNrOfPublishedEvents() {
+        return published.sum();
+    }
+
+    long getNrOfDroppedEvents() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            for (MpscRingBuffer<E> stripe : stripes) {
+                E event;
+                while ((event = stripe.poll()) != null) {
+                    try {
+                        consumer.accept(event);
+                    } catch (RuntimeException e) {
+                        log.error("Failed to handle event " + event, e);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
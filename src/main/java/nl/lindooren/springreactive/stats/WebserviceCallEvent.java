@@ -1,5 +1,6 @@
 package nl.lindooren.springreactive.stats;
 
+import lombok.AllArgsConstructor;
 import lombok.Value;
 
 import java.util.Optional;
@@ -8,8 +9,28 @@ import java.util.Optional;
  * Represents a single (individual) call to a webservice
  */
 @Value
-public class WebserviceCallEvent {
+@AllArgsConstructor
+public class WebserviceCallEvent implements MonitorEvent {
     private String webserviceName;
-    private boolean success;
+    private CallOutcome outcome;
+    /**
+     * Milliseconds from the subscription to the end of the response, only of successful calls
+     */
     private Optional<Long> responseTime;
+    /**
+     * Milliseconds from the subscription to the first bytes of the body, if any were received
+     */
+    private Optional<Long> timeToFirstByte;
+    /**
+     * The number of bytes of the body that were received (after decompression)
+     */
+    private long payloadBytes;
+
+    public WebserviceCallEvent(final String webserviceName, final boolean success, final Optional<Long> responseTime) {
+        this(webserviceName, success ? CallOutcome.SUCCESS : CallOutcome.ERROR, responseTime, Optional.empty(), 0);
+    }
+
+    public boolean isSuccess() {
+        return outcome == CallOutcome.SUCCESS;
+    }
 }
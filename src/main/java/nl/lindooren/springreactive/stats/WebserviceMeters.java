@@ -0,0 +1,65 @@
+package nl.lindooren.springreactive.stats;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The meters of the calls to one webservice: a timer of the successful calls (with a percentile histogram,
+ * so percentiles can be aggregated over instances), the time to the first byte, the size of the bodies
+ * and a counter per {@link CallOutcome}.
+ * <p>
+ * Recorded by the event bus, so the callers of the {@link StatsService} don't wait on the meters.
+ * Recording doesn't allocate, the meters are created once per webservice.
+ */
+class WebserviceMeters {
+
+    static final String PREFIX = "upstream.";
+    static final String WEBSERVICE_TAG = "webservice";
+    private static final String OUTCOME_TAG = "outcome";
+
+    private final Timer responseTimes;
+    private final Timer timesToFirstByte;
+    private final DistributionSummary payloadSizes;
+    // Indexed by the ordinal of the outcome
+    private final Counter[] calls = new Counter[CallOutcome.values().length];
+
+    WebserviceMeters(final String webserviceName, final MeterRegistry meterRegistry) {
+        responseTimes = Timer.builder(PREFIX + "responseTime")
+                .tag(WEBSERVICE_TAG, webserviceName)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry);
+        timesToFirstByte = Timer.builder(PREFIX + "timeToFirstByte")
+                .tag(WEBSERVICE_TAG, webserviceName)
+                .register(meterRegistry);
+        payloadSizes = DistributionSummary.builder(PREFIX + "payloadSize")
+                .baseUnit("bytes")
+                .tag(WEBSERVICE_TAG, webserviceName)
+                .register(meterRegistry);
+        for (CallOutcome outcome : CallOutcome.values()) {
+            calls[outcome.ordinal()] = Counter.builder(PREFIX + "calls")
+                    .tag(WEBSERVICE_TAG, webserviceName)
+                    .tag(OUTCOME_TAG, outcome.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+    }
+
+    void record(final WebserviceCallEvent event) {
+        calls[event.getOutcome().ordinal()].increment();
+        if (event.getResponseTime().isPresent()) {
+            responseTimes.record(event.getResponseTime().get(), TimeUnit.MILLISECONDS);
+        }
+        if (event.getTimeToFirstByte().isPresent()) {
+            timesToFirstByte.record(event.getTimeToFirstByte().get(), TimeUnit.MILLISECONDS);
+        }
+        if (event.getOutcome() == CallOutcome.SUCCESS) {
+            payloadSizes.record(event.getPayloadBytes());
+        }
+    }
+}
@@ -19,4 +19,9 @@ public class WebserviceStats {
     private long minResponseTime;
     private long maxResponseTime;
     private long avgResponseTime;
+    private long p50ResponseTime;
+    private long p90ResponseTime;
+    private long p95ResponseTime;
+    private long p99ResponseTime;
+    private long p999ResponseTime;
 }
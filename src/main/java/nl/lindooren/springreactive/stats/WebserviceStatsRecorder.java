@@ -0,0 +1,77 @@
+package nl.lindooren.springreactive.stats;
+
+import java.time.Duration;
+
+/**
+ * Mutable accumulator of the calls made to a webservice during one window (or bucket of a window).
+ * <p>
+ * Recording an event only increments a few counters (no boxing, no copying of earlier response times),
+ * the {@link WebserviceStats} are only computed once the window is closed.
+ */
+public class WebserviceStatsRecorder {
+
+    /**
+     * Very simplistic way of determining the health of a webservice
+     */
+    private static final double MAX_HEALTHY_ERROR_RATE = 10;
+
+    private long nrOfRequests;
+    private long nrOfErrors;
+    private final ResponseTimeHistogram responseTimes = new ResponseTimeHistogram();
+
+    public WebserviceStatsRecorder record(final WebserviceCallEvent event) {
+        // Not a request the webservice failed or succeeded to answer
+        if (event.getOutcome() == CallOutcome.CANCELLED) {
+            return this;
+        }
+        nrOfRequests++;
+        if (event.getOutcome().isFailure()) {
+            nrOfErrors++;
+        }
+        event.getResponseTime().ifPresent(responseTimes::record);
+        return this;
+    }
+
+    /**
+     * Adds everything recorded by the other recorder to this one
+     */
+    public WebserviceStatsRecorder add(final WebserviceStatsRecorder other) {
+        nrOfRequests += other.nrOfRequests;
+        nrOfErrors += other.nrOfErrors;
+        responseTimes.add(other.responseTimes);
+        return this;
+    }
+
+    public void reset() {
+        nrOfRequests = 0;
+        nrOfErrors = 0;
+        responseTimes.reset();
+    }
+
+    public WebserviceStats toWebserviceStats(final Duration windowSize) {
+        return toWebserviceStats(windowSize, windowSize);
+    }
+
+    /**
+     * @param span the time the recorded calls were made in, the request rate is over this span
+     */
+    public WebserviceStats toWebserviceStats(final Duration windowSize, final Duration span) {
+        final double errorRate = nrOfRequests == 0 ? 0 : ((double) nrOfErrors * 100) / nrOfRequests;
+        return new WebserviceStats(
+                errorRate < MAX_HEALTHY_ERROR_RATE,
+                windowSize,
+                nrOfRequests,
+                nrOfErrors,
+                errorRate,
+                nrOfRequests * 1000.0 / span.toMillis(),
+                responseTimes.getMin(),
+                responseTimes.getMax(),
+                responseTimes.getAverage(),
+                responseTimes.getValueAtPercentile(50),
+                responseTimes.getValueAtPercentile(90),
+                responseTimes.getValueAtPercentile(95),
+                responseTimes.getValueAtPercentile(99),
+                responseTimes.getValueAtPercentile(99.9)
+        );
+    }
+}
@@ -0,0 +1,56 @@
+package nl.lindooren.springreactive.http;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class InstrumentedChannelPoolTests {
+
+    StatsService statsService = mock(StatsService.class);
+    ChannelPool delegate = mock(ChannelPool.class);
+    PoolMetrics poolMetrics = new PoolMetrics("books", statsService);
+    // At most one request waiting for a connection
+    InstrumentedChannelPool pool = new InstrumentedChannelPool(delegate, poolMetrics, 1);
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAcquiredConnectionsAreInUseUntilReleased() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        when(delegate.acquire(any())).thenAnswer(invocation ->
+                ((Promise<Channel>) invocation.getArguments()[0]).setSuccess(channel));
+        when(delegate.release(any(), any())).thenAnswer(invocation ->
+                ((Promise<Void>) invocation.getArguments()[1]).setSuccess(null));
+
+        pool.acquire(ImmediateEventExecutor.INSTANCE.newPromise());
+
+        assertThat(poolMetrics.getInUse().get()).isEqualTo(1);
+        assertThat(poolMetrics.getPendingAcquires().get()).isEqualTo(0);
+
+        pool.release(channel, ImmediateEventExecutor.INSTANCE.newPromise());
+
+        assertThat(poolMetrics.getInUse().get()).isEqualTo(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAcquisitionsAreRejectedWhenTooManyAreWaiting() {
+        // The connection is never acquired
+        when(delegate.acquire(any())).thenAnswer(invocation -> invocation.getArguments()[0]);
+
+        pool.acquire(ImmediateEventExecutor.INSTANCE.newPromise());
+        Future<Channel> rejected = pool.acquire(ImmediateEventExecutor.INSTANCE.newPromise());
+
+        assertThat(rejected.isDone()).isTrue();
+        assertThat(rejected.isSuccess()).isFalse();
+        assertThat(poolMetrics.getPendingAcquires().get()).isEqualTo(1);
+        verify(statsService).incrementCounter("books", PoolMetrics.ACQUIRE_FAILURES_COUNTER);
+    }
+}
@@ -0,0 +1,80 @@
+package nl.lindooren.springreactive.http;
+
+import nl.lindooren.springreactive.stats.CallDeadline;
+import nl.lindooren.springreactive.stats.CallOutcome;
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class UpstreamCallRecorderTests {
+
+    StatsService statsService = mock(StatsService.class);
+    UpstreamCallRecorder recorder = new UpstreamCallRecorder("books", statsService);
+
+    @Test
+    public void testASuccessfulCallIsReportedWithItsTimingAndSize() {
+        Flux<DataBuffer> body = Flux.just("[1,", "2]").map(this::buffer);
+
+        recorder.record(() -> body, buffers -> buffers).blockLast();
+
+        WebserviceCallEvent event = reportedEvent();
+        assertThat(event.getOutcome()).isEqualTo(CallOutcome.SUCCESS);
+        assertThat(event.getResponseTime()).isPresent();
+        assertThat(event.getTimeToFirstByte()).isPresent();
+        assertThat(event.getPayloadBytes()).isEqualTo(5);
+    }
+
+    @Test
+    public void testAnErrorStatusIsAnHttpError() {
+        Flux<DataBuffer> body = Flux.error(new WebClientResponseException("Service Unavailable", 503,
+                "Service Unavailable", new HttpHeaders(), new byte[0], StandardCharsets.UTF_8));
+
+        recorder.record(() -> body, buffers -> buffers).onErrorResume(e -> Flux.empty()).blockLast();
+
+        assertThat(reportedEvent().getOutcome()).isEqualTo(CallOutcome.HTTP_ERROR);
+        assertThat(reportedEvent().getResponseTime()).isEmpty();
+    }
+
+    @Test
+    public void testACancellationBeforeTheDeadlineIsNoTimeOut() {
+        recorder.record(Flux::<DataBuffer>never, buffers -> buffers)
+                .take(Duration.ofMillis(50))
+                .subscriberContext(CallDeadline.after(Duration.ofSeconds(10)))
+                .blockLast();
+
+        assertThat(reportedEvent().getOutcome()).isEqualTo(CallOutcome.CANCELLED);
+    }
+
+    @Test
+    public void testACancellationAtTheDeadlineIsATimeOut() {
+        recorder.record(Flux::<DataBuffer>never, buffers -> buffers)
+                .take(Duration.ofMillis(50))
+                .subscriberContext(CallDeadline.after(Duration.ofMillis(50)))
+                .blockLast();
+
+        assertThat(reportedEvent().getOutcome()).isEqualTo(CallOutcome.TIMEOUT);
+    }
+
+    private WebserviceCallEvent reportedEvent() {
+        ArgumentCaptor<WebserviceCallEvent> event = ArgumentCaptor.forClass(WebserviceCallEvent.class);
+        verify(statsService).notifyOfCall(event.capture());
+        return event.getValue();
+    }
+
+    private DataBuffer buffer(final String content) {
+        return new DefaultDataBufferFactory().wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
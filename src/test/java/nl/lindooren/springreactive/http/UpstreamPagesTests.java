@@ -0,0 +1,58 @@
+package nl.lindooren.springreactive.http;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpstreamPagesTests {
+
+    // The offsets of the pages that were fetched
+    List<Integer> fetched = new CopyOnWriteArrayList<>();
+
+    /**
+     * A webservice with 25 results
+     */
+    Flux<Integer> fetch(int offset, int size) {
+        fetched.add(offset);
+        return Flux.range(offset, Math.max(0, Math.min(size, 25 - offset)));
+    }
+
+    @Test
+    public void testAllResultsAreFetchedInPages() {
+        List<Integer> results = UpstreamPages.fetch(this::fetch, 0, 100, 10, 1000).collectList().block();
+
+        assertThat(results).hasSize(25).startsWith(0, 1, 2).endsWith(24);
+        // The third page wasn't full, so it was the last one
+        assertThat(fetched).containsExactly(0, 10, 20);
+    }
+
+    @Test
+    public void testPagesAreOnlyFetchedOnDemandAndOneAhead() {
+        StepVerifier.create(UpstreamPages.fetch(this::fetch, 0, 100, 10, 1000), 5)
+                .expectNext(0, 1, 2, 3, 4)
+                .then(() -> assertThat(fetched).containsExactly(0, 10))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void testTheLastPageIsOnlyAsLargeAsNeeded() {
+        List<Integer> results = UpstreamPages.fetch(this::fetch, 5, 12, 10, 1000).collectList().block();
+
+        assertThat(results).hasSize(12).startsWith(5).endsWith(16);
+        assertThat(fetched).containsExactly(5, 15);
+    }
+
+    @Test
+    public void testNothingIsFetchedBeyondTheMaxOffset() {
+        List<Integer> results = UpstreamPages.fetch(this::fetch, 0, 100, 10, 15).collectList().block();
+
+        assertThat(results).hasSize(15);
+        assertThat(fetched).containsExactly(0, 10);
+    }
+}
@@ -0,0 +1,58 @@
+package nl.lindooren.springreactive.json;
+
+import org.junit.Test;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StreamingJsonArrayDecoderTests {
+
+    static final String JSON = "{\"kind\":\"books#volumes\",\"totalItems\":3,\"items\":[" +
+            "{\"id\":\"1\",\"volumeInfo\":{\"title\":\"Gone with the Wind\",\"authors\":[\"Margaret Mitchell\"]," +
+            "\"imageLinks\":{\"title\":\"skipped\"},\"industryIdentifiers\":[{\"title\":\"skipped\"}]}," +
+            "\"saleInfo\":{\"title\":\"skipped\"}}," +
+            "{\"id\":\"2\",\"volumeInfo\":{\"title\":\"Good Omens\",\"authors\":[\"Terry Pratchett\",\"Neil Gaiman\"]}}," +
+            "{\"id\":\"3\",\"volumeInfo\":{\"title\":\"Anonymous\",\"authors\":null}}" +
+            "],\"other\":{\"items\":[{\"volumeInfo\":{\"title\":\"skipped\"}}]}}";
+
+    StreamingJsonArrayDecoder<String> decoder = new StreamingJsonArrayDecoder<>(
+            JsonProjection.of("items", "volumeInfo.title", "volumeInfo.authors"),
+            values -> values.getString("volumeInfo.title") + " by " + values.getStrings("volumeInfo.authors"));
+
+    Flux<DataBuffer> chunked(String json, int chunkSize) {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final List<DataBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            chunks.add(new DefaultDataBufferFactory().wrap(
+                    Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + chunkSize))));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    @Test
+    public void testOnlyTheProjectedFieldsOfTheElementsAreDecoded() {
+        for (int chunkSize : new int[]{1, 7, 64, JSON.length()}) {
+            List<String> elements = decoder.decode(chunked(JSON, chunkSize)).collectList().block();
+
+            assertThat(elements).containsExactly(
+                    "Gone with the Wind by [Margaret Mitchell]",
+                    "Good Omens by [Terry Pratchett, Neil Gaiman]",
+                    "Anonymous by []");
+        }
+    }
+
+    @Test
+    public void testAnIncompleteDocumentFails() {
+        assertThatThrownBy(() -> decoder.decode(chunked(JSON.substring(0, 150), 16)).blockLast())
+                .isInstanceOf(DecodingException.class);
+    }
+}
@@ -0,0 +1,135 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CircuitBreakerTests {
+
+    AtomicLong now = new AtomicLong(1_000_000L);
+    StatsService statsService = mock(StatsService.class);
+    // Opens when half of the last 4 calls failed, probes with 2 calls after 1 second
+    CircuitBreaker circuitBreaker = new CircuitBreaker("books", statsService, 50, 4, 1000, 2, now::get);
+
+    void fail(int nrOfCalls) {
+        for (int i = 0; i < nrOfCalls; i++) {
+            circuitBreaker.onCallCompleted(false);
+        }
+    }
+
+    void succeed(int nrOfCalls) {
+        for (int i = 0; i < nrOfCalls; i++) {
+            circuitBreaker.onCallCompleted(true);
+        }
+    }
+
+    @Test
+    public void testTheCircuitOpensWhenTooManyOfTheLastCallsFailed() {
+        succeed(10);
+        fail(1);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        fail(1);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        verify(statsService).notifyOfCircuitBreakerStateChange("books", "CLOSED", "OPEN");
+    }
+
+    @Test
+    public void testCallsAreNotMadeWhileTheCircuitIsOpen() {
+        fail(4);
+        AtomicInteger nrOfCalls = new AtomicInteger();
+
+        assertThatThrownBy(() -> circuitBreaker.protect(() -> Flux.just(nrOfCalls.incrementAndGet())).blockLast())
+                .isInstanceOf(CircuitBreakerOpenException.class);
+        assertThat(nrOfCalls.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testOnlyALimitedNumberOfProbesIsPermittedWhenHalfOpen() {
+        fail(4);
+        now.addAndGet(1000);
+
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    public void testConcurrentCallersGetExactlyTheNumberOfProbes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 100; round++) {
+                CircuitBreaker circuitBreaker = new CircuitBreaker("books", statsService, 50, 4, 1000, 2, now::get);
+                for (int i = 0; i < 4; i++) {
+                    circuitBreaker.onCallCompleted(false);
+                }
+                now.addAndGet(1000);
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicInteger nrOfPermits = new AtomicInteger();
+                List<Future<?>> callers = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    callers.add(executor.submit(() -> {
+                        start.await();
+                        for (int j = 0; j < 10; j++) {
+                            if (circuitBreaker.tryAcquirePermission()) {
+                                nrOfPermits.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> caller : callers) {
+                    caller.get();
+                }
+
+                assertThat(nrOfPermits.get()).isEqualTo(2);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTheCircuitClosesWhenAllProbesSucceed() {
+        fail(4);
+        now.addAndGet(1000);
+        circuitBreaker.tryAcquirePermission();
+
+        succeed(2);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        // The outcomes from before the circuit opened are forgotten
+        fail(1);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testTheCircuitOpensAgainWhenAProbeFails() {
+        fail(4);
+        now.addAndGet(1000);
+        circuitBreaker.tryAcquirePermission();
+
+        fail(1);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+}
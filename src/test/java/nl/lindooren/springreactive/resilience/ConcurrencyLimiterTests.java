@@ -0,0 +1,84 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ConcurrencyLimiterTests {
+
+    StatsService statsService = mock(StatsService.class);
+
+    ConcurrencyLimiter createLimiter(int limit, int maxQueueSize) {
+        return new ConcurrencyLimiter("books", statsService, limit, 1, 100, maxQueueSize,
+                Duration.ofSeconds(1), 2.0, 0.5);
+    }
+
+    @Test
+    public void testCallsAreRejectedWhenTheQueueIsFull() {
+        ConcurrencyLimiter concurrencyLimiter = createLimiter(1, 1);
+        concurrencyLimiter.limit(Flux::never).subscribe();
+        concurrencyLimiter.limit(Flux::never).subscribe();
+
+        assertThatThrownBy(() -> concurrencyLimiter.limit(() -> Flux.just("third")).blockLast())
+                .isInstanceOf(ConcurrencyLimitExceededException.class);
+        verify(statsService).incrementCounter("books", ConcurrencyLimiter.REJECTED_COUNTER);
+    }
+
+    @Test
+    public void testAQueuedCallIsMadeOnceAPermitIsReleased() {
+        ConcurrencyLimiter concurrencyLimiter = createLimiter(1, 1);
+        concurrencyLimiter.limit(() -> Mono.delay(Duration.ofMillis(200)).map(tick -> "first").flux()).subscribe();
+
+        assertThat(concurrencyLimiter.limit(() -> Flux.just("second")).blockLast()).isEqualTo("second");
+    }
+
+    @Test
+    public void testAPermitGrantedWhenTheQueueWaitIsOverIsNotLost() throws InterruptedException {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter("books", statsService, 1, 1, 1, 1,
+                Duration.ofMillis(10), 2.0, 0.5);
+        ArgumentCaptor<LongSupplier> callsInFlight = ArgumentCaptor.forClass(LongSupplier.class);
+        verify(statsService).registerGauge(eq("books"), eq("callsInFlight"), callsInFlight.capture());
+
+        for (int i = 0; i < 200; i++) {
+            // The first call releases its permit at about the time the queued call times out
+            concurrencyLimiter.limit(() -> Mono.delay(Duration.ofMillis(10)).map(tick -> "first").flux()).subscribe();
+            concurrencyLimiter.limit(() -> Flux.just("second"))
+                    .onErrorResume(ConcurrencyLimitExceededException.class, e -> Flux.empty())
+                    .blockLast(Duration.ofSeconds(1));
+            // The first call may still be in flight when the queued one timed out
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (callsInFlight.getValue().getAsLong() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertThat(callsInFlight.getValue().getAsLong()).isEqualTo(0);
+        }
+
+        assertThat(concurrencyLimiter.limit(() -> Flux.just("third")).blockLast()).isEqualTo("third");
+    }
+
+    @Test
+    public void testTheLimitDecreasesWhenCallsFailOrGetSlow() {
+        ConcurrencyLimiter concurrencyLimiter = createLimiter(16, 1);
+
+        concurrencyLimiter.onFailure();
+        assertThat(concurrencyLimiter.getLimit()).isEqualTo(8);
+
+        concurrencyLimiter.onSuccess(100);
+        for (int i = 0; i < 20; i++) {
+            concurrencyLimiter.onSuccess(1000);
+        }
+        assertThat(concurrencyLimiter.getLimit()).isEqualTo(1);
+    }
+}
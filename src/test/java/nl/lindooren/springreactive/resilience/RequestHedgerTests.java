@@ -0,0 +1,99 @@
+package nl.lindooren.springreactive.resilience;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceStats;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+public class RequestHedgerTests {
+
+    // p95 of 100ms over 100 calls
+    WebserviceStats stats = new WebserviceStats(true, Duration.ofSeconds(5), 100, 0, 0, 20,
+            10, 200, 50, 50, 90, 100, 150, 200);
+
+    StatsService statsService = mock(StatsService.class);
+    AtomicInteger nrOfCalls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        when(statsService.getCurrentStatsForWebservice("books")).thenReturn(Optional.of(stats));
+    }
+
+    /**
+     * The first call takes a second, the hedged call returns immediately
+     */
+    Flux<String> slowFirstCall() {
+        return nrOfCalls.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofSeconds(1)).map(tick -> "first").flux()
+                : Flux.just("hedged");
+    }
+
+    @Test
+    public void testTheHedgedCallWinsWhenTheFirstCallIsSlow() {
+        RequestHedger requestHedger = new RequestHedger(statsService, true, 100, 20, 50);
+
+        String result = requestHedger.hedge("books", this::slowFirstCall).blockLast();
+
+        assertThat(result).isEqualTo("hedged");
+        assertThat(nrOfCalls.get()).isEqualTo(2);
+        verify(statsService).incrementCounter("books", RequestHedger.HEDGES_ISSUED_COUNTER);
+        verify(statsService).incrementCounter("books", RequestHedger.HEDGES_WON_COUNTER);
+    }
+
+    @Test
+    public void testNoHedgeIsMadeOverBudget() {
+        // Five percent of a single call doesn't pay for a hedge
+        RequestHedger requestHedger = new RequestHedger(statsService, true, 5, 20, 50);
+
+        String result = requestHedger.hedge("books", this::slowFirstCall).blockLast();
+
+        assertThat(result).isEqualTo("first");
+        assertThat(nrOfCalls.get()).isEqualTo(1);
+        verify(statsService).incrementCounter("books", RequestHedger.HEDGES_OVER_BUDGET_COUNTER);
+    }
+
+    @Test
+    public void testNoHedgeIsMadeWithoutEnoughCallsToGoBy() {
+        RequestHedger requestHedger = new RequestHedger(statsService, true, 100, 1000, 50);
+
+        String result = requestHedger.hedge("books", this::slowFirstCall).blockLast();
+
+        assertThat(result).isEqualTo("first");
+        assertThat(nrOfCalls.get()).isEqualTo(1);
+        verify(statsService, never()).incrementCounter(anyString(), anyString());
+    }
+
+    @Test
+    public void testTheHedgedCallWinsWhenTheFirstCallFailsAfterTheHedgeWasMade() {
+        RequestHedger requestHedger = new RequestHedger(statsService, true, 100, 20, 50);
+
+        // The hedge is made after 100ms, the first call fails after 150ms and the hedge returns after 300ms
+        String result = requestHedger.hedge("books", () -> nrOfCalls.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(150)).then(Mono.<String>error(new RuntimeException("first failed"))).flux()
+                : Mono.delay(Duration.ofMillis(200)).map(tick -> "hedged").flux())
+                .blockLast();
+
+        assertThat(result).isEqualTo("hedged");
+    }
+
+    @Test
+    public void testTheCallFailsWhenBothCallsFail() {
+        RequestHedger requestHedger = new RequestHedger(statsService, true, 100, 20, 50);
+
+        Flux<String> result = requestHedger.hedge("books", () -> nrOfCalls.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(150)).then(Mono.<String>error(new RuntimeException("first failed"))).flux()
+                : Mono.delay(Duration.ofMillis(200)).then(Mono.<String>error(new RuntimeException("hedge failed"))).flux());
+
+        assertThatThrownBy(result::blockLast).hasMessage("hedge failed");
+    }
+}
@@ -0,0 +1,55 @@
+package nl.lindooren.springreactive.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutocompleteIndexTests {
+
+    MediaItem abbeyRoad = new MediaItem("Abbey Road", Collections.singleton("The Beatles"), "ALBUM");
+    MediaItem beatlesBook = new MediaItem("The Beatles: The Biography", Collections.singleton("Bob Spitz"), "BOOK");
+    MediaItem cafe = new MediaItem("Café Tacvba", new HashSet<>(Arrays.asList("Café Tacvba")), "ALBUM");
+
+    @Test
+    public void testItemsAreFoundOnEveryWordOfTheirTitleAndAuthors() {
+        AutocompleteIndex index = new AutocompleteIndex(100);
+        index.add(abbeyRoad);
+        index.add(beatlesBook);
+
+        assertThat(index.lookup("beatl", 10)).containsExactlyInAnyOrder(abbeyRoad, beatlesBook);
+        assertThat(index.lookup("The  B", 10)).containsExactlyInAnyOrder(abbeyRoad, beatlesBook);
+        assertThat(index.lookup("road", 10)).containsExactly(abbeyRoad);
+        assertThat(index.lookup("spi", 10)).containsExactly(beatlesBook);
+        assertThat(index.lookup("beatl", 1)).hasSize(1);
+        assertThat(index.lookup("eatl", 10)).isEmpty();
+        assertThat(index.lookup(" ", 10)).isEmpty();
+    }
+
+    @Test
+    public void testLookupsIgnoreCasingAccentsAndPunctuation() {
+        AutocompleteIndex index = new AutocompleteIndex(100);
+        index.add(cafe);
+        index.add(beatlesBook);
+
+        assertThat(index.lookup("CAFE", 10)).containsExactly(cafe);
+        assertThat(index.lookup("beatles the", 10)).containsExactly(beatlesBook);
+    }
+
+    @Test
+    public void testTheLeastRecentlyUsedItemsAreEvicted() {
+        AutocompleteIndex index = new AutocompleteIndex(2);
+        index.add(abbeyRoad);
+        index.add(beatlesBook);
+        // Abbey Road is used, so the book is evicted
+        index.lookup("abbey", 10);
+        index.add(cafe);
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.lookup("beatl", 10)).containsExactly(abbeyRoad);
+        assertThat(index.lookup("cafe", 10)).containsExactly(cafe);
+    }
+}
@@ -0,0 +1,115 @@
+package nl.lindooren.springreactive.search;
+
+import nl.lindooren.springreactive.apple.Album;
+import nl.lindooren.springreactive.apple.ItunesAlbumMediaSource;
+import nl.lindooren.springreactive.apple.ItunesAlbumService;
+import nl.lindooren.springreactive.google.Book;
+import nl.lindooren.springreactive.google.GoogleBookMediaSource;
+import nl.lindooren.springreactive.google.GoogleBookService;
+import nl.lindooren.springreactive.resilience.CircuitBreakers;
+import nl.lindooren.springreactive.stats.StatsService;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlockingSearchServiceImplTests {
+
+    Book book1 = new Book("To Kill a Mockingbird", new HashSet<>(Arrays.asList("Harper Lee")));
+    Book book2 = new Book("Gone with the Wind", new HashSet<>(Arrays.asList("Margaret Mitchell")));
+
+    Album album1 = new Album("Starboy", "The Weeknd");
+    Album album2 = new Album("Evolve", "Imagine Dragons");
+
+    GoogleBookService googleBookService = mock(GoogleBookService.class);
+    ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+
+    BlockingSearchServiceImpl blockingSearchService;
+
+    @After
+    public void close() {
+        if (blockingSearchService != null) {
+            blockingSearchService.close();
+        }
+    }
+
+    @Test
+    public void testResultsAreRankedLikeTheReactiveSearch() {
+        when(googleBookService.searchBooks("foo", 5)).thenReturn(Flux.just(book1, book2));
+        when(itunesAlbumService.searchAlbums("foo", 5)).thenReturn(Flux.just(album1, album2));
+        blockingSearchService = createBlockingSearchService();
+
+        assertThat(blockingSearchService.searchAlbumsAndBooks("foo", Duration.ofSeconds(1))).containsExactly(
+                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), "ALBUM"),
+                new MediaItem(book2.getTitle(), book2.getAuthors(), "BOOK"),
+                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), "ALBUM"),
+                new MediaItem(book1.getTitle(), book1.getAuthors(), "BOOK")
+        );
+    }
+
+    @Test
+    public void testSlowSourcesAreCancelledAtTheDeadline() {
+        final AtomicBoolean albumsCancelled = new AtomicBoolean();
+        when(googleBookService.searchBooks("foo", 5)).thenReturn(Flux.just(book1, book2));
+        when(itunesAlbumService.searchAlbums("foo", 5)).thenReturn(Flux.just(album1, album2)
+                .delayElements(Duration.ofSeconds(2))
+                .doOnCancel(() -> albumsCancelled.set(true)));
+        blockingSearchService = createBlockingSearchService();
+
+        final long start = System.nanoTime();
+        SearchResponse response = blockingSearchService.searchAlbumsAndBooksWithStatus("foo", Duration.ofMillis(500));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        assertThat(response.getItems()).hasSize(2);
+        assertThat(response.getSources())
+                .containsEntry("books", SourceStatus.COMPLETED)
+                .containsEntry("albums", SourceStatus.TIMED_OUT);
+        assertThat(albumsCancelled).isTrue();
+    }
+
+    @Test
+    public void testAutocompleteReturnsWhatTheOtherSourcesFoundWhenASourceTimesOut() {
+        when(googleBookService.searchBooks("foo", 5)).thenReturn(Flux.just(book1, book2));
+        when(itunesAlbumService.searchAlbums("foo", 5)).thenReturn(Flux.just(album1, album2)
+                .delayElements(Duration.ofSeconds(2)));
+        blockingSearchService = createBlockingSearchService();
+
+        final long start = System.nanoTime();
+        List<MediaItem> results = blockingSearchService.autocompleteAlbumsAndBooks("foo", 5, Duration.ofMillis(500));
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        assertThat(results).extracting(MediaItem::getType).containsOnly("BOOK");
+        assertThat(results).hasSize(2);
+    }
+
+    @Test
+    public void testPlatformThreadsAreUsedWithoutVirtualThreads() throws Exception {
+        final ExecutorService executor = BlockingSearchServiceImpl.newExecutor(false);
+
+        assertThat(executor.submit(() -> Thread.currentThread().getName()).get(1, TimeUnit.SECONDS))
+                .startsWith("blocking-search-");
+        executor.shutdownNow();
+    }
+
+    private BlockingSearchServiceImpl createBlockingSearchService() {
+        StatsService statsService = mock(StatsService.class);
+        RelevanceRanker relevanceRanker = new RelevanceRanker(50);
+        SearchServiceImpl searchService = new SearchServiceImpl(
+                Arrays.asList(new ItunesAlbumMediaSource(itunesAlbumService), new GoogleBookMediaSource(googleBookService)),
+                statsService, SearchResultCache.NONE, new CircuitBreakers(statsService, 50, 20, 5000, 3),
+                relevanceRanker, new AutocompleteIndex(1000), 5, 8, 20, 5);
+        return new BlockingSearchServiceImpl(searchService, relevanceRanker, true);
+    }
+}
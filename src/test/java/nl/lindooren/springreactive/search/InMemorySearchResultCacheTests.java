@@ -0,0 +1,131 @@
+package nl.lindooren.springreactive.search;
+
+import nl.lindooren.springreactive.http.UpstreamCallRecorder;
+import nl.lindooren.springreactive.stats.CallOutcome;
+import nl.lindooren.springreactive.stats.StatsService;
+import nl.lindooren.springreactive.stats.WebserviceCallEvent;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InMemorySearchResultCacheTests {
+
+    StatsService statsService = mock(StatsService.class);
+    AtomicInteger nrOfLoads = new AtomicInteger();
+
+    Flux<MediaItem> load(String title) {
+        nrOfLoads.incrementAndGet();
+        return Flux.just(new MediaItem(title, Collections.singleton("Bombay Bicycle Club"), "ALBUM"));
+    }
+
+    @Test
+    public void testResultsAreCachedPerSourceAndQuery() {
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, SearchResultStore.NONE, 100, 100, 60, 60, 1000);
+
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        List<MediaItem> cached = cache.get("albums", "flaws", 5, () -> load("Flaws")).collectList().block();
+        cache.get("books", "flaws", 5, () -> load("Flaws")).blockLast();
+
+        assertThat(cached).extracting(MediaItem::getTitle).containsExactly("Flaws");
+        assertThat(nrOfLoads.get()).isEqualTo(2);
+        verify(statsService).incrementCounter("albums", InMemorySearchResultCache.HITS_COUNTER);
+        verify(statsService).incrementCounter("albums", InMemorySearchResultCache.MISSES_COUNTER);
+        verify(statsService).incrementCounter("books", InMemorySearchResultCache.MISSES_COUNTER);
+    }
+
+    @Test
+    public void testStoredResultsAreLoadedOffTheCallingThread() {
+        SearchResultStore store = mock(SearchResultStore.class);
+        List<MediaItem> stored = Collections.singletonList(
+                new MediaItem("Flaws", Collections.singleton("Bombay Bicycle Club"), "ALBUM"));
+        AtomicReference<Thread> storeThread = new AtomicReference<>();
+        when(store.get("albums", "flaws", 5)).thenAnswer(invocation -> {
+            storeThread.set(Thread.currentThread());
+            return Optional.of(new SearchResultStore.StoredResults(stored, System.currentTimeMillis()));
+        });
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, store, 100, 100, 60, 60, 1000);
+
+        List<MediaItem> results = cache.get("albums", "flaws", 5, () -> load("Flaws")).collectList().block();
+
+        assertThat(results).isEqualTo(stored);
+        assertThat(nrOfLoads.get()).isEqualTo(0);
+        assertThat(storeThread.get()).isNotNull().isNotSameAs(Thread.currentThread());
+        verify(statsService).incrementCounter("albums", InMemorySearchResultCache.STORE_HITS_COUNTER);
+        verify(statsService).incrementCounter("albums", InMemorySearchResultCache.HITS_COUNTER);
+    }
+
+    @Test
+    public void testIncompleteResultsAreNotCached() {
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, SearchResultStore.NONE, 100, 100, 60, 60, 1000);
+
+        cache.get("albums", "flaws", 5, () -> load("Flaws").delayElements(Duration.ofSeconds(1)))
+                .timeout(Duration.ofMillis(50))
+                .onErrorResume(throwable -> Flux.empty())
+                .blockLast();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvictedOnWeight() {
+        // Every entry (one item) weighs 2
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, SearchResultStore.NONE, 100, 4, 60, 60, 1000);
+
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        cache.get("albums", "bicycle", 5, () -> load("Bicycle")).blockLast();
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        cache.get("albums", "evolve", 5, () -> load("Evolve")).blockLast();
+
+        assertThat(cache.size()).isEqualTo(2);
+        verify(statsService).incrementCounter("albums", InMemorySearchResultCache.EVICTIONS_COUNTER);
+        // 'bicycle' was evicted, 'flaws' is still there
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        assertThat(nrOfLoads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testExpiredResultsAreServedWhileRefreshing() {
+        // Immediately expired, but may be served for another minute
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, SearchResultStore.NONE, 100, 100, 0, 60, 1000);
+
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        List<MediaItem> stale = cache.get("albums", "flaws", 5, () -> load("Flaws (Remastered)"))
+                .collectList().block();
+        List<MediaItem> refreshed = cache.get("albums", "flaws", 5, () -> load("Flaws (Remastered)"))
+                .collectList().block();
+
+        assertThat(stale).extracting(MediaItem::getTitle).containsExactly("Flaws");
+        assertThat(refreshed).extracting(MediaItem::getTitle).containsExactly("Flaws (Remastered)");
+        verify(statsService, atLeastOnce()).incrementCounter("albums", InMemorySearchResultCache.REFRESHES_COUNTER);
+    }
+
+    @Test
+    public void testARefreshThatTakesTooLongIsReportedAsATimeOut() {
+        InMemorySearchResultCache cache = new InMemorySearchResultCache(statsService, SearchResultStore.NONE, 100, 100, 0, 60, 50);
+        UpstreamCallRecorder recorder = new UpstreamCallRecorder("albums", statsService);
+
+        cache.get("albums", "flaws", 5, () -> load("Flaws")).blockLast();
+        cache.get("albums", "flaws", 5, () -> recorder.record(Flux::<DataBuffer>never,
+                buffers -> buffers.map(buffer -> new MediaItem("Flaws", Collections.emptySet(), "ALBUM"))))
+                .blockLast();
+
+        ArgumentCaptor<WebserviceCallEvent> event = ArgumentCaptor.forClass(WebserviceCallEvent.class);
+        verify(statsService, timeout(1000)).notifyOfCall(event.capture());
+        assertThat(event.getValue().getOutcome()).isEqualTo(CallOutcome.TIMEOUT);
+    }
+}
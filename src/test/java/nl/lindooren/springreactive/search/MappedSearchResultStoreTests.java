@@ -0,0 +1,196 @@
+package nl.lindooren.springreactive.search;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedSearchResultStoreTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    List<MappedSearchResultStore> stores = new ArrayList<>();
+
+    List<MediaItem> albums = Arrays.asList(
+            new MediaItem("Flaws", Collections.singleton("Bombay Bicycle Club"), "ALBUM"),
+            new MediaItem("Bicycle Día", new HashSet<>(Arrays.asList("Kloot Per W", "Ærø")), "ALBUM"));
+
+    MappedSearchResultStore open(int segmentSize, long timeToLiveSeconds) throws InterruptedException {
+        return open(segmentSize, 4, timeToLiveSeconds);
+    }
+
+    MappedSearchResultStore open(int segmentSize, int maxSegments, long timeToLiveSeconds) throws InterruptedException {
+        MappedSearchResultStore store = new MappedSearchResultStore(true, folder.getRoot().getPath(),
+                segmentSize, maxSegments, timeToLiveSeconds, 3600);
+        stores.add(store);
+        store.awaitWrites();
+        return store;
+    }
+
+    @After
+    public void close() {
+        stores.forEach(MappedSearchResultStore::close);
+    }
+
+    @Test
+    public void testResultsSurviveARestart() throws InterruptedException {
+        MappedSearchResultStore store = open(4096, 60);
+        store.put("albums", "flaws", 5, Collections.emptyList());
+        store.put("albums", "flaws", 5, albums);
+        store.put("books", "flaws", 5, albums.subList(0, 1));
+        store.awaitWrites();
+        store.close();
+
+        MappedSearchResultStore restarted = open(4096, 60);
+        restarted.awaitWrites();
+
+        assertThat(restarted.get("albums", "flaws", 5).get().getItems()).isEqualTo(albums);
+        assertThat(restarted.get("books", "flaws", 5).get().getItems()).hasSize(1);
+        assertThat(restarted.get("albums", "flaws", 10)).isEmpty();
+    }
+
+    @Test
+    public void testExpiredResultsAreNotReturned() throws InterruptedException {
+        MappedSearchResultStore store = open(4096, 0);
+        store.put("albums", "flaws", 5, albums);
+        store.awaitWrites();
+        Thread.sleep(10);
+
+        assertThat(store.get("albums", "flaws", 5)).isEmpty();
+    }
+
+    @Test
+    public void testCompactionDeletesSegmentsOfReplacedResults() throws InterruptedException {
+        // A few records per segment
+        MappedSearchResultStore store = open(512, 60);
+        for (int i = 0; i < 20; i++) {
+            store.put("albums", "flaws", 5, albums);
+        }
+        store.put("albums", "bicycle", 5, albums);
+        store.awaitWrites();
+        assertThat(segmentFiles()).hasSize(4);
+
+        store.compactNow();
+
+        assertThat(segmentFiles()).hasSizeLessThan(4);
+        assertThat(store.get("albums", "flaws", 5).get().getItems()).isEqualTo(albums);
+        assertThat(store.get("albums", "bicycle", 5).get().getItems()).isEqualTo(albums);
+    }
+
+    @Test
+    public void testAFullStoreKeepsItsResultsOnARestart() throws InterruptedException {
+        MappedSearchResultStore store = open(4 * recordLength() + recordLength() / 2, 3, 60);
+        // Three full segments, the last one is the active segment
+        for (int i = 0; i < 12; i++) {
+            store.put("albums", query(i), 5, albums);
+        }
+        store.awaitWrites();
+        assertThat(segmentFiles()).hasSize(3);
+        store.close();
+
+        MappedSearchResultStore restarted = open(4 * recordLength() + recordLength() / 2, 3, 60);
+        restarted.awaitWrites();
+
+        for (int i = 0; i < 12; i++) {
+            assertThat(restarted.get("albums", query(i), 5)).isPresent();
+        }
+    }
+
+    @Test
+    public void testSegmentsDroppedBeforeTheyAreIndexedAreNotIndexed() throws InterruptedException {
+        MappedSearchResultStore store = open(4 * recordLength() + recordLength() / 2, 3, 60);
+        // Three full segments, the last one is the active segment
+        for (int i = 0; i < 12; i++) {
+            store.put("albums", query(i), 5, albums);
+        }
+        store.awaitWrites();
+        store.close();
+
+        // New results are stored before the segments are indexed: they fill the new active segment
+        // and start another one, which drops the two oldest segments
+        Scheduler scheduler = Schedulers.newSingle("search-result-store-test", true);
+        CountDownLatch opened = new CountDownLatch(1);
+        scheduler.schedule(() -> {
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        MappedSearchResultStore restarted = new MappedSearchResultStore(true, folder.getRoot().getPath(),
+                4 * recordLength() + recordLength() / 2, 3, 60, 3600, scheduler);
+        stores.add(restarted);
+        for (int i = 20; i < 25; i++) {
+            restarted.put("albums", query(i), 5, albums);
+        }
+        opened.countDown();
+        restarted.awaitWrites();
+
+        // The results of the third segment and the new ones
+        assertThat(restarted.size()).isEqualTo(9);
+        assertThat(restarted.get("albums", query(0), 5)).isEmpty();
+        assertThat(restarted.get("albums", query(8), 5)).isPresent();
+        assertThat(restarted.get("albums", query(24), 5)).isPresent();
+    }
+
+    @Test
+    public void testCompactionOfAFullStoreKeepsTheLiveResults() throws InterruptedException {
+        MappedSearchResultStore store = open(4 * recordLength() + recordLength() / 2, 4, 60);
+        // Four full segments: the last one replaces all but the first result of the first segment,
+        // so moving that one during the compaction needs a new segment
+        for (int i = 0; i < 12; i++) {
+            store.put("albums", query(i), 5, albums);
+        }
+        for (int i = 1; i < 4; i++) {
+            store.put("albums", query(i), 5, albums);
+        }
+        store.put("albums", query(12), 5, albums);
+        store.awaitWrites();
+        assertThat(segmentFiles()).hasSize(4);
+
+        store.compactNow();
+
+        for (int i = 0; i < 13; i++) {
+            assertThat(store.get("albums", query(i), 5)).isPresent();
+        }
+        assertThat(segmentFiles()).hasSize(4);
+    }
+
+    @Test
+    public void testNothingIsStoredWhenDisabled() {
+        MappedSearchResultStore store = new MappedSearchResultStore(false, folder.getRoot().getPath(),
+                4096, 4, 60, 60);
+        store.put("albums", "flaws", 5, albums);
+
+        assertThat(store.get("albums", "flaws", 5)).isEmpty();
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    private String query(int i) {
+        return String.format("q%02d", i);
+    }
+
+    /**
+     * The length of a record of {@link #albums} for a {@link #query(int)}
+     */
+    private int recordLength() {
+        return SearchResultRecords.encode("albums", query(0), 5, albums, 0).length;
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles((directory, name) -> name.startsWith("segment-"));
+    }
+}
@@ -0,0 +1,69 @@
+package nl.lindooren.springreactive.search;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MediaItemBinaryEncoderTests {
+
+    MediaItemBinaryEncoder encoder = new MediaItemBinaryEncoder();
+
+    List<MediaItem> items = Arrays.asList(
+            new MediaItem("Flaws", Collections.singleton("Bombay Bicycle Club"), "ALBUM"),
+            new MediaItem("So Long, See You Tomorrow", Collections.singleton("Bombay Bicycle Club"), "ALBUM"),
+            new MediaItem("Bicycle Día", new HashSet<>(Arrays.asList("Kloot Per W", "Ærø")), "BOOK"),
+            new MediaItem("Untitled", Collections.emptySet(), "BOOK"));
+
+    @Test
+    public void testItemsCanBeDecodedAgain() {
+        assertThat(MediaItemBinaryEncoder.decode(encode(new DefaultDataBufferFactory()))).isEqualTo(items);
+        assertThat(MediaItemBinaryEncoder.decode(encode(new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT))))
+                .isEqualTo(items);
+    }
+
+    @Test
+    public void testRepeatedStringsAreOnlySentOnce() {
+        List<DataBuffer> buffers = encoder.encode(Flux.fromIterable(items.subList(0, 2)), new DefaultDataBufferFactory(),
+                ResolvableType.forClass(MediaItem.class), MediaItemBinaryEncoder.MEDIA_ITEMS, Collections.emptyMap())
+                .collectList().block();
+
+        // The second item only has its title, the type and author refer to the first item
+        assertThat(buffers.get(1).readableByteCount()).isEqualTo(4 + 2 + 2 + 25 + 2 + 2);
+    }
+
+    @Test
+    public void testOnlyMediaItemsAreEncoded() {
+        assertThat(encoder.canEncode(ResolvableType.forClass(MediaItem.class), MediaItemBinaryEncoder.MEDIA_ITEMS))
+                .isTrue();
+        assertThat(encoder.canEncode(ResolvableType.forClass(MediaItem.class), MediaType.APPLICATION_JSON)).isFalse();
+        assertThat(encoder.canEncode(ResolvableType.forClass(String.class), MediaItemBinaryEncoder.MEDIA_ITEMS))
+                .isFalse();
+    }
+
+    private ByteBuffer encode(DataBufferFactory bufferFactory) {
+        DataBuffer response = encoder.encode(Flux.fromIterable(items), bufferFactory,
+                ResolvableType.forClass(MediaItem.class), MediaItemBinaryEncoder.MEDIA_ITEMS, Collections.emptyMap())
+                .reduce(DataBuffer::write)
+                .block();
+        ByteBuffer bytes = ByteBuffer.allocate(response.readableByteCount());
+        bytes.put(response.asByteBuffer());
+        bytes.flip();
+        DataBufferUtils.release(response);
+        return bytes;
+    }
+}
@@ -0,0 +1,57 @@
+package nl.lindooren.springreactive.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelevanceRankerTests {
+
+    @Test
+    public void testNearDuplicatesAreLeftOut() {
+        final List<MediaItem> albums = Arrays.asList(
+                album("Abbey Road", "The Beatles"),
+                album("Abbey Road (Remastered)", "The Beatles"),
+                album("ABBEY ROAD!", "the beatles"),
+                album("Abbey Road - 50th Anniversary Edition", "The Beatles"));
+        final List<MediaItem> books = Collections.singletonList(
+                new MediaItem("Abbey Road", Collections.singleton("The Beatles"), "BOOK"));
+
+        final List<MediaItem> ranked = new RelevanceRanker(10).rank("abbey road", Arrays.asList(albums, books));
+
+        assertThat(ranked).containsExactly(albums.get(0), books.get(0));
+    }
+
+    @Test
+    public void testTheMostRelevantItemsComeFirst() {
+        final List<MediaItem> albums = Arrays.asList(
+                album("Heart of Glass", "Blondie"),
+                album("Glass Heart", "Leona Lewis"),
+                album("Glass", "Philip Glass"),
+                album("Artificial", "Glass Animals"),
+                album("Glassworks", "Philip Glass"));
+
+        final List<MediaItem> ranked = new RelevanceRanker(4).rank("Glass", Collections.singletonList(albums));
+
+        assertThat(ranked).extracting(MediaItem::getTitle)
+                .containsExactly("Glass", "Glass Heart", "Heart of Glass", "Artificial");
+    }
+
+    @Test
+    public void testAuthorsWithTheSameNamesInAnotherOrderAreDuplicates() {
+        final MediaItem book = new MediaItem("Good Omens",
+                new HashSet<>(Arrays.asList("Terry Pratchett", "Neil Gaiman")), "BOOK");
+        final MediaItem sameBook = new MediaItem("Good omens",
+                new HashSet<>(Arrays.asList("NEIL GAIMAN", "Terry Pratchett")), "BOOK");
+
+        assertThat(RelevanceRanker.keyOf(book)).isEqualTo(RelevanceRanker.keyOf(sameBook));
+    }
+
+    private MediaItem album(final String title, final String artist) {
+        return new MediaItem(title, Collections.singleton(artist), "ALBUM");
+    }
+}
@@ -0,0 +1,72 @@
+package nl.lindooren.springreactive.search;
+
+import nl.lindooren.springreactive.stats.StatsService;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RequestCoalescerTests {
+
+    StatsService statsService = mock(StatsService.class);
+    RequestCoalescer<String, String> coalescer = new RequestCoalescer<>("books", statsService);
+    AtomicInteger nrOfUpstreamCalls = new AtomicInteger();
+
+    Flux<String> upstreamCall() {
+        nrOfUpstreamCalls.incrementAndGet();
+        return Flux.just("Bicycle", "Flaws").delayElements(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneUpstreamCall() {
+        Flux<String> first = coalescer.coalesce("bicycle", this::upstreamCall);
+        Flux<String> second = coalescer.coalesce("bicycle", this::upstreamCall);
+
+        List<List<String>> results = Flux.merge(first.collectList(), second.collectList()).collectList().block();
+
+        assertThat(results).containsExactly(
+                Arrays.asList("Bicycle", "Flaws"),
+                Arrays.asList("Bicycle", "Flaws"));
+        assertThat(nrOfUpstreamCalls.get()).isEqualTo(1);
+        assertThat(coalescer.getNrOfCallsInFlight()).isEqualTo(0);
+        verify(statsService, times(1)).incrementCounter("books", RequestCoalescer.ISSUED_COUNTER);
+        verify(statsService, times(1)).incrementCounter("books", RequestCoalescer.COALESCED_COUNTER);
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotShared() {
+        Flux.merge(
+                coalescer.coalesce("bicycle", this::upstreamCall),
+                coalescer.coalesce("tricycle", this::upstreamCall)
+        ).blockLast();
+
+        assertThat(nrOfUpstreamCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeyIsReleasedOnCompletion() {
+        coalescer.coalesce("bicycle", this::upstreamCall).blockLast();
+        coalescer.coalesce("bicycle", this::upstreamCall).blockLast();
+
+        assertThat(nrOfUpstreamCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeyIsReleasedWhenAllSubscribersTimeOut() {
+        List<String> results = coalescer.coalesce("bicycle", this::upstreamCall)
+                .timeout(Duration.ofMillis(50))
+                .onErrorResume(throwable -> Flux.empty())
+                .collectList().block();
+
+        assertThat(results).isEmpty();
+        assertThat(coalescer.getNrOfCallsInFlight()).isEqualTo(0);
+    }
+}
@@ -1,23 +1,35 @@
 package nl.lindooren.springreactive.search;
 
 import nl.lindooren.springreactive.apple.Album;
+import nl.lindooren.springreactive.apple.ItunesAlbumMediaSource;
 import nl.lindooren.springreactive.apple.ItunesAlbumService;
+import nl.lindooren.springreactive.google.GoogleBookMediaSource;
 import nl.lindooren.springreactive.google.Book;
 import nl.lindooren.springreactive.google.GoogleBookService;
+import nl.lindooren.springreactive.resilience.CircuitBreakers;
+import nl.lindooren.springreactive.stats.StatsService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
@@ -34,6 +46,8 @@ public class SearchServiceImplTests {
 
     Flux<Album> unsortedAlbums = Flux.just(album1, album2);
 
+    CircuitBreakers circuitBreakers = new CircuitBreakers(mock(StatsService.class), 50, 20, 5000, 3);
+
     @Test
     public void testSorting() {
         final String query = "foo"; // Ignored
@@ -45,15 +59,15 @@ public class SearchServiceImplTests {
         ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
         when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
 
-        SearchServiceImpl searchService = new SearchServiceImpl(googleBookService, itunesAlbumService, nrOfResults);
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
         List<MediaItem> items = searchService.searchAlbumsAndBooks(query)
                 .collectList().block();
 
         assertThat(items).containsExactly(
-                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), MediaItem.Type.ALBUM),
-                new MediaItem(book2.getTitle(), book2.getAuthors(), MediaItem.Type.BOOK),
-                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), MediaItem.Type.ALBUM),
-                new MediaItem(book1.getTitle(), book1.getAuthors(), MediaItem.Type.BOOK)
+                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), "ALBUM"),
+                new MediaItem(book2.getTitle(), book2.getAuthors(), "BOOK"),
+                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), "ALBUM"),
+                new MediaItem(book1.getTitle(), book1.getAuthors(), "BOOK")
         );
     }
 
@@ -70,13 +84,13 @@ public class SearchServiceImplTests {
         ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
         when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
 
-        SearchServiceImpl searchService = new SearchServiceImpl(googleBookService, itunesAlbumService, nrOfResults);
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
         List<MediaItem> items = searchService.searchAlbumsAndBooks(query)
                 .collectList().block();
 
         assertThat(items).containsExactly(
-                new MediaItem(book2.getTitle(), book2.getAuthors(), MediaItem.Type.BOOK),
-                new MediaItem(book1.getTitle(), book1.getAuthors(), MediaItem.Type.BOOK)
+                new MediaItem(book2.getTitle(), book2.getAuthors(), "BOOK"),
+                new MediaItem(book1.getTitle(), book1.getAuthors(), "BOOK")
         );
     }
 
@@ -93,13 +107,238 @@ public class SearchServiceImplTests {
         ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
         when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
 
-        SearchServiceImpl searchService = new SearchServiceImpl(googleBookService, itunesAlbumService, nrOfResults);
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
         List<MediaItem> items = searchService.searchAlbumsAndBooks(query)
                 .collectList().block();
 
         assertThat(items).containsExactly(
-                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), MediaItem.Type.ALBUM),
-                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), MediaItem.Type.ALBUM)
+                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), "ALBUM"),
+                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), "ALBUM")
+        );
+    }
+
+    @Test
+    public void testTheStatusOfEverySourceIsReported() {
+        final String query = "foo"; // Ignored
+        final int nrOfResults = 5; // Ignored
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(query, nrOfResults)).thenReturn(unsortedBooks);
+
+        // Return albums only after 2 seconds, while the client only waits half a second
+        unsortedAlbums = unsortedAlbums.delayElements(Duration.ofSeconds(2));
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
+        SearchResponse response = searchService.searchAlbumsAndBooksWithStatus(query, Duration.ofMillis(500))
+                .block();
+
+        assertThat(response.getItems()).hasSize(2);
+        assertThat(response.getSources())
+                .containsEntry("books", SourceStatus.COMPLETED)
+                .containsEntry("albums", SourceStatus.TIMED_OUT);
+        assertThat(response.isPartial()).isTrue();
+    }
+
+    @Test
+    public void testStreamedItemsOfAFastSourceArriveBeforeASlowSourceIsDone() {
+        final String query = "foo";
+        final int nrOfResults = 5;
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(query, nrOfResults)).thenReturn(unsortedBooks);
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(query, nrOfResults))
+                .thenReturn(unsortedAlbums.delaySubscription(Duration.ofMillis(300)));
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
+
+        StepVerifier.create(searchService.streamAlbumsAndBooks(query, Duration.ofSeconds(1)))
+                .expectNextMatches(item -> item.getType().equals("BOOK"))
+                .expectNextMatches(item -> item.getType().equals("BOOK"))
+                .expectNoEvent(Duration.ofMillis(100))
+                .expectNextMatches(item -> item.getType().equals("ALBUM"))
+                .expectNextMatches(item -> item.getType().equals("ALBUM"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void testAStreamEndsWhenASourceTimesOutOrFails() {
+        final String query = "foo";
+        final int nrOfResults = 5;
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(query, nrOfResults))
+                .thenReturn(Flux.error(new RuntimeException("Something went wrong")));
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(query, nrOfResults))
+                .thenReturn(unsortedAlbums.concatWith(Flux.never()));
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
+
+        StepVerifier.create(searchService.streamAlbumsAndBooks(query, Duration.ofMillis(500)))
+                .expectNextCount(2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void testAnyNumberOfSourcesIsSearched() {
+        final String query = "foo";
+        final int nrOfResults = 5;
+
+        MediaSource podcasts = mock(MediaSource.class);
+        when(podcasts.getName()).thenReturn("podcasts");
+        when(podcasts.getNrOfResults()).thenReturn(OptionalInt.empty());
+        when(podcasts.getMaxTimeout()).thenReturn(Optional.empty());
+        when(podcasts.search(query, nrOfResults)).thenReturn(
+                Flux.just(new MediaItem("Serial", Collections.singleton("Sarah Koenig"), "PODCAST")));
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(query, nrOfResults)).thenReturn(unsortedBooks);
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
+
+        // A fan-out of one searches the sources one after the other, which must still fit in the budget
+        SearchServiceImpl searchService = createSearchService(
+                Arrays.asList(new ItunesAlbumMediaSource(itunesAlbumService),
+                        new GoogleBookMediaSource(googleBookService), podcasts),
+                nrOfResults, 1);
+        SearchResponse response = searchService.searchAlbumsAndBooksWithStatus(query, Duration.ofMillis(500))
+                .block();
+
+        assertThat(response.getItems()).hasSize(5);
+        assertThat(response.getItems().get(4).getTitle()).isEqualTo("To Kill a Mockingbird");
+        assertThat(response.getSources()).containsOnlyKeys("albums", "books", "podcasts");
+        assertThat(response.isPartial()).isFalse();
+    }
+
+    @Test
+    public void testPagesReturnEveryItemOnce() {
+        final String query = "foo";
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(eq(query), anyInt(), anyInt(), anyInt())).thenAnswer(invocation ->
+                unsortedBooks.skip(invocation.getArgument(1)).take((int) invocation.getArgument(2)));
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(eq(query), anyInt(), anyInt(), anyInt())).thenAnswer(invocation ->
+                unsortedAlbums.skip(invocation.getArgument(1)).take((int) invocation.getArgument(2)));
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, 5);
+        List<MediaItem> items = new ArrayList<>();
+        SearchCursor cursor = SearchCursor.START;
+        for (int page = 0; page < 10 && cursor != null; page++) {
+            SearchPage searchPage = searchService.searchAlbumsAndBooksPage(query, cursor, 3, Duration.ofMillis(500))
+                    .block();
+            assertThat(searchPage.getItems()).hasSizeLessThanOrEqualTo(3);
+            items.addAll(searchPage.getItems());
+            cursor = searchPage.getNextCursor() == null ? null : SearchCursor.decode(searchPage.getNextCursor());
+        }
+
+        assertThat(cursor).isNull();
+        assertThat(items).containsExactlyInAnyOrder(
+                new MediaItem(album1.getTitle(), Collections.singleton(album1.getAuthor()), "ALBUM"),
+                new MediaItem(album2.getTitle(), Collections.singleton(album2.getAuthor()), "ALBUM"),
+                new MediaItem(book1.getTitle(), book1.getAuthors(), "BOOK"),
+                new MediaItem(book2.getTitle(), book2.getAuthors(), "BOOK")
         );
     }
+
+    @Test
+    public void testPagesMoveOnWhenTheBestResultsAreBehindWeakerOnes() {
+        final String query = "foo";
+        Flux<Album> albums = Flux.just(new Album("Something Else", "The Kinks"), new Album("Foo", "Foo Fighters"));
+        Flux<Book> books = Flux.just(new Book("Another Book", Collections.singleton("Jane Doe")),
+                new Book("Foo", Collections.singleton("John Doe")));
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(eq(query), anyInt(), anyInt(), anyInt())).thenAnswer(invocation ->
+                books.skip(invocation.getArgument(1)).take((int) invocation.getArgument(2)));
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(eq(query), anyInt(), anyInt(), anyInt())).thenAnswer(invocation ->
+                albums.skip(invocation.getArgument(1)).take((int) invocation.getArgument(2)));
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, 5);
+        List<MediaItem> items = new ArrayList<>();
+        SearchCursor cursor = SearchCursor.START;
+        for (int page = 0; page < 10 && cursor != null; page++) {
+            SearchPage searchPage = searchService.searchAlbumsAndBooksPage(query, cursor, 2, Duration.ofMillis(500))
+                    .block();
+            assertThat(searchPage.getItems()).isNotEmpty();
+            items.addAll(searchPage.getItems());
+            cursor = searchPage.getNextCursor() == null ? null : SearchCursor.decode(searchPage.getNextCursor());
+        }
+
+        assertThat(cursor).isNull();
+        assertThat(items).extracting(MediaItem::getTitle)
+                .containsExactlyInAnyOrder("Something Else", "Foo", "Another Book", "Foo");
+    }
+
+    @Test
+    public void testPagingDoesNotEndWhenTheSourcesFail() {
+        final String query = "foo";
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(eq(query), anyInt(), anyInt(), anyInt()))
+                .thenReturn(Flux.error(new RuntimeException("Something went wrong")));
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(eq(query), anyInt(), anyInt(), anyInt()))
+                .thenReturn(unsortedAlbums.delayElements(Duration.ofSeconds(2)));
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, 5);
+        SearchPage searchPage = searchService.searchAlbumsAndBooksPage(query, SearchCursor.START, 2,
+                Duration.ofMillis(500)).block();
+
+        assertThat(searchPage.getItems()).isEmpty();
+        assertThat(searchPage.isPartial()).isTrue();
+        assertThat(searchPage.getSources())
+                .containsEntry("books", SourceStatus.FAILED)
+                .containsEntry("albums", SourceStatus.TIMED_OUT);
+        SearchCursor cursor = SearchCursor.decode(searchPage.getNextCursor());
+        assertThat(cursor.getOffset("books")).isZero();
+        assertThat(cursor.getOffset("albums")).isZero();
+    }
+
+    @Test
+    public void testAutocompleteIsAnsweredFromEarlierResults() {
+        final String query = "foo";
+        final int nrOfResults = 5;
+
+        GoogleBookService googleBookService = mock(GoogleBookService.class);
+        when(googleBookService.searchBooks(query, nrOfResults)).thenReturn(unsortedBooks);
+        ItunesAlbumService itunesAlbumService = mock(ItunesAlbumService.class);
+        when(itunesAlbumService.searchAlbums(query, nrOfResults)).thenReturn(unsortedAlbums);
+
+        SearchServiceImpl searchService = createSearchService(googleBookService, itunesAlbumService, nrOfResults);
+        searchService.searchAlbumsAndBooks(query).blockLast();
+        List<MediaItem> items = searchService.autocompleteAlbumsAndBooks("Imagine D", 1, Duration.ofMillis(500))
+                .collectList().block();
+
+        assertThat(items).extracting(MediaItem::getTitle).containsExactly("Evolve");
+        verify(itunesAlbumService, never()).searchAlbums("imagine d", nrOfResults);
+    }
+
+    @Test
+    public void testQueriesAreSanitized() {
+        assertThat(SearchServiceImpl.sanitize("  The\tBEATLES  ")).isEqualTo("the beatles");
+        assertThat(SearchServiceImpl.sanitize("ﬁre")).isEqualTo("fire");
+    }
+
+    private SearchServiceImpl createSearchService(GoogleBookService googleBookService,
+                                                  ItunesAlbumService itunesAlbumService, int nrOfResults) {
+        return createSearchService(
+                Arrays.asList(new ItunesAlbumMediaSource(itunesAlbumService),
+                        new GoogleBookMediaSource(googleBookService)),
+                nrOfResults, 8);
+    }
+
+    /**
+     * @param fanOutConcurrency the number of sources that are searched at the same time
+     */
+    private SearchServiceImpl createSearchService(List<MediaSource> sources, int nrOfResults, int fanOutConcurrency) {
+        return new SearchServiceImpl(sources, mock(StatsService.class), SearchResultCache.NONE, circuitBreakers,
+                new RelevanceRanker(50), new AutocompleteIndex(1000), nrOfResults, fanOutConcurrency, 20, 5);
+    }
 }
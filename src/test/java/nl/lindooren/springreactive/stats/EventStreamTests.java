@@ -0,0 +1,35 @@
+package nl.lindooren.springreactive.stats;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventStreamTests {
+
+    EventStream eventStream = new EventStream(2, Duration.ofMinutes(1));
+
+    @Test
+    public void testANewSubscriberGetsTheMostRecentEventsFirst() {
+        eventStream.publish(event(100));
+        eventStream.publish(event(200));
+        eventStream.publish(event(300));
+
+        List<MonitorEvent> withHistory = new ArrayList<>();
+        List<MonitorEvent> live = new ArrayList<>();
+        eventStream.withHistory().subscribe(withHistory::add);
+        eventStream.live().subscribe(live::add);
+        eventStream.publish(event(400));
+
+        assertThat(withHistory).containsExactly(event(200), event(300), event(400));
+        assertThat(live).containsExactly(event(400));
+    }
+
+    private WebserviceCallEvent event(final long responseTime) {
+        return new WebserviceCallEvent("books", true, Optional.of(responseTime));
+    }
+}
@@ -0,0 +1,78 @@
+package nl.lindooren.springreactive.stats;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ResponseTimeHistogramTests {
+
+    @Test
+    public void testEmptyHistogram() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+
+        assertThat(histogram.getTotalCount()).isEqualTo(0);
+        assertThat(histogram.getMin()).isEqualTo(0);
+        assertThat(histogram.getMax()).isEqualTo(0);
+        assertThat(histogram.getAverage()).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        for (long value = 1; value <= 50; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getMin()).isEqualTo(1);
+        assertThat(histogram.getMax()).isEqualTo(50);
+        assertThat(histogram.getAverage()).isEqualTo(25);
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(25);
+        assertThat(histogram.getValueAtPercentile(90)).isEqualTo(45);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(50);
+    }
+
+    @Test
+    public void testPercentilesOfLargeValuesAreWithinThreePercent() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getMin()).isEqualTo(1);
+        assertThat(histogram.getMax()).isEqualTo(10_000);
+        assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(5_000, within(150d));
+        assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(9_900, within(297d));
+        assertThat((double) histogram.getValueAtPercentile(99.9)).isCloseTo(9_990, within(300d));
+    }
+
+    @Test
+    public void testValuesAboveMaxTrackableValueAreCountedInTheLastBucketButKeptInMaxAndSum() {
+        ResponseTimeHistogram histogram = new ResponseTimeHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        histogram.record(-5);
+
+        assertThat(histogram.getTotalCount()).isEqualTo(2);
+        assertThat(histogram.getMin()).isEqualTo(0);
+        assertThat(histogram.getMax()).isEqualTo(Long.MAX_VALUE / 2);
+        assertThat(histogram.getAverage()).isEqualTo(Long.MAX_VALUE / 4);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void testAdd() {
+        ResponseTimeHistogram first = new ResponseTimeHistogram();
+        first.record(10);
+        first.record(20);
+        ResponseTimeHistogram second = new ResponseTimeHistogram();
+        second.record(300);
+
+        first.add(second);
+
+        assertThat(first.getTotalCount()).isEqualTo(3);
+        assertThat(first.getMin()).isEqualTo(10);
+        assertThat(first.getMax()).isEqualTo(300);
+        assertThat(first.getAverage()).isEqualTo(110);
+    }
+}
@@ -0,0 +1,102 @@
+package nl.lindooren.springreactive.stats;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class SlidingWindowStatsTests {
+
+    private static final long START = 1_000_000_000L;
+
+    SlidingWindowStats slidingWindow = new SlidingWindowStats();
+
+    void recordSuccess(long responseTime, long atMillis) {
+        slidingWindow.record(new WebserviceCallEvent("books", true, Optional.of(responseTime)), atMillis);
+    }
+
+    void recordFailure(long atMillis) {
+        slidingWindow.record(new WebserviceCallEvent("books", false, Optional.empty()), atMillis);
+    }
+
+    @Test
+    public void testOnlyCallsWithinTheWindowAreCounted() {
+        recordSuccess(100, START);
+        recordSuccess(200, START + 3_000);
+        recordFailure(START + 4_500);
+
+        WebserviceStats lastFiveSeconds = slidingWindow.getStats(Duration.ofSeconds(5), START + 4_500);
+        WebserviceStats lastTwoSeconds = slidingWindow.getStats(Duration.ofSeconds(2), START + 4_500);
+
+        assertThat(lastFiveSeconds.getNrOfRequests()).isEqualTo(3);
+        assertThat(lastFiveSeconds.getNrOfErrors()).isEqualTo(1);
+        assertThat(lastFiveSeconds.getMinResponseTime()).isEqualTo(100);
+        assertThat(lastTwoSeconds.getNrOfRequests()).isEqualTo(2);
+        assertThat(lastTwoSeconds.getMinResponseTime()).isEqualTo(200);
+    }
+
+    @Test
+    public void testTimeOutsAreErrorsAndCancellationsAreNotCounted() {
+        recordSuccess(100, START);
+        slidingWindow.record(new WebserviceCallEvent("books", CallOutcome.TIMEOUT,
+                Optional.empty(), Optional.empty(), 0), START);
+        slidingWindow.record(new WebserviceCallEvent("books", CallOutcome.CANCELLED,
+                Optional.empty(), Optional.of(20L), 512), START);
+
+        WebserviceStats stats = slidingWindow.getStats(Duration.ofSeconds(5), START);
+
+        assertThat(stats.getNrOfRequests()).isEqualTo(2);
+        assertThat(stats.getNrOfErrors()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTheWindowSlides() {
+        recordSuccess(100, START);
+
+        assertThat(slidingWindow.getStats(Duration.ofSeconds(5), START + 4_000).getNrOfRequests()).isEqualTo(1);
+        assertThat(slidingWindow.getStats(Duration.ofSeconds(5), START + 5_000).getNrOfRequests()).isEqualTo(0);
+        assertThat(slidingWindow.getStats(Duration.ofSeconds(5), START + 5_000).isHealthy()).isTrue();
+    }
+
+    @Test
+    public void testLongerWindowsUseMinuteBuckets() {
+        recordSuccess(100, START);
+        recordSuccess(300, START + Duration.ofMinutes(30).toMillis());
+
+        WebserviceStats lastHour = slidingWindow.getStats(Duration.ofHours(1), START + Duration.ofMinutes(45).toMillis());
+        WebserviceStats lastMinute = slidingWindow.getStats(Duration.ofMinutes(1), START + Duration.ofMinutes(45).toMillis());
+
+        assertThat(lastHour.getNrOfRequests()).isEqualTo(2);
+        assertThat(lastHour.getAvgResponseTime()).isEqualTo(200);
+        assertThat(lastMinute.getNrOfRequests()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTheRateIsOverTheTimeTheMinuteBucketsCover() {
+        final long minuteStart = (START / 60_000 + 1) * 60_000;
+        for (int i = 0; i < 120; i++) {
+            recordSuccess(100, minuteStart + i * 1_000);
+        }
+
+        // Merges the previous minute and the current one, which is almost over: two minutes of calls
+        WebserviceStats stats = slidingWindow.getStats(Duration.ofSeconds(61), minuteStart + 119_999);
+
+        assertThat(stats.getNrOfRequests()).isEqualTo(120);
+        assertThat(stats.getWindowSize()).isEqualTo(Duration.ofSeconds(61));
+        assertThat(stats.getRequestsPerSecond()).isCloseTo(1.0, within(0.01));
+    }
+
+    @Test
+    public void testBucketsAreReusedWhenTheRingComesAround() {
+        recordSuccess(100, START);
+        recordSuccess(200, START + 60_000);
+
+        WebserviceStats lastSecond = slidingWindow.getStats(Duration.ofSeconds(1), START + 60_000);
+
+        assertThat(lastSecond.getNrOfRequests()).isEqualTo(1);
+        assertThat(lastSecond.getMaxResponseTime()).isEqualTo(200);
+    }
+}
@@ -0,0 +1,68 @@
+package nl.lindooren.springreactive.stats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatsServiceImplTests {
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    StatsServiceImpl statsService = new StatsServiceImpl(meterRegistry, 10, 60);
+
+    @Before
+    public void init() {
+        statsService.init();
+    }
+
+    @Test
+    public void testTheMeterOfAGaugeReadsTheGaugeRegisteredLast() {
+        statsService.registerGauge("books", "connectionsInUse", () -> 1);
+        statsService.registerGauge("books", "connectionsInUse", () -> 2);
+
+        assertThat(statsService.getGaugesForWebservice("books")).containsEntry("connectionsInUse", 2L);
+        assertThat(meterRegistry.get(WebserviceMeters.PREFIX + "connectionsInUse")
+                .tag(WebserviceMeters.WEBSERVICE_TAG, "books").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    public void testStatsAndHealthAreAnsweredFromTheLatestSnapshotRightAway() throws InterruptedException {
+        assertThat(answeredRightAway(statsService.checkAllWebservicesConsideredHealthy())).contains(true);
+
+        statsService.notifyOfSuccessfulCall("books", Optional.of(100L));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!statsService.getStatsStreamForWebservice("books").isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // Until the first window has been emitted there are no stats to go by (like a webservice that hangs)
+        assertThat(answeredRightAway(statsService.fetchCurrentStatsForWebservice("books"))).isEmpty();
+        assertThat(answeredRightAway(statsService.checkAllWebservicesConsideredHealthy())).contains(false);
+
+        statsService.getStatsStreamForWebservice("books").get().blockFirst(Duration.ofSeconds(5));
+
+        assertThat(answeredRightAway(statsService.fetchCurrentStatsForWebservice("books")))
+                .hasValueSatisfying(stats -> assertThat(stats.getNrOfRequests()).isEqualTo(1));
+        assertThat(answeredRightAway(statsService.checkAllWebservicesConsideredHealthy())).contains(true);
+    }
+
+    /**
+     * @return the value of the mono, which has to be there on subscription (without waiting on anything)
+     */
+    private static <T> Optional<T> answeredRightAway(final Mono<T> mono) {
+        final AtomicReference<T> value = new AtomicReference<>();
+        final AtomicBoolean completed = new AtomicBoolean();
+        mono.subscribe(value::set, throwable -> { }, () -> completed.set(true));
+        assertThat(completed).isTrue();
+        return Optional.ofNullable(value.get());
+    }
+}
@@ -0,0 +1,80 @@
+package nl.lindooren.springreactive.stats;
+
+import org.junit.Test;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedEventBusTests {
+
+    private static final int NR_OF_PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 100_000;
+
+    @Test
+    public void testEventsOfConcurrentProducersAreAllDeliveredOnce() throws InterruptedException {
+        final Set<Long> received = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean concurrentlyConsumed = new AtomicBoolean();
+        final AtomicBoolean consuming = new AtomicBoolean();
+        final CountDownLatch allReceived = new CountDownLatch(NR_OF_PRODUCERS * EVENTS_PER_PRODUCER);
+        final Scheduler scheduler = Schedulers.newSingle("test-events");
+        // Large enough to never drop an event
+        final StripedEventBus<Long> eventBus = new StripedEventBus<>(NR_OF_PRODUCERS * EVENTS_PER_PRODUCER,
+                event -> {
+                    if (!consuming.compareAndSet(false, true)) {
+                        concurrentlyConsumed.set(true);
+                    }
+                    received.add(event);
+                    consuming.set(false);
+                    allReceived.countDown();
+                }, scheduler);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int producer = 0; producer < NR_OF_PRODUCERS; producer++) {
+            final long offset = (long) producer * EVENTS_PER_PRODUCER;
+            producers.add(new Thread(() -> {
+                for (long i = 0; i < EVENTS_PER_PRODUCER; i++) {
+                    eventBus.publish(offset + i);
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+
+        assertThat(allReceived.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(received).hasSize(NR_OF_PRODUCERS * EVENTS_PER_PRODUCER);
+        assertThat(concurrentlyConsumed.get()).isFalse();
+        assertThat(eventBus.getNrOfPublishedEvents()).isEqualTo(NR_OF_PRODUCERS * EVENTS_PER_PRODUCER);
+        assertThat(eventBus.getNrOfDroppedEvents()).isEqualTo(0);
+        scheduler.dispose();
+    }
+
+    @Test
+    public void testEventsAreDroppedWhenTheBufferIsFull() {
+        final Scheduler scheduler = Schedulers.newSingle("test-events");
+        final CountDownLatch blockConsumer = new CountDownLatch(1);
+        final StripedEventBus<Long> eventBus = new StripedEventBus<>(4, event -> {
+            try {
+                blockConsumer.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, scheduler);
+
+        for (long i = 0; i < 10; i++) {
+            eventBus.publish(i);
+        }
+
+        // At most one event is taken by the (blocked) consumer, the buffer of the stripe holds another 4
+        assertThat(eventBus.getNrOfDroppedEvents()).isGreaterThanOrEqualTo(5);
+        blockConsumer.countDown();
+        scheduler.dispose();
+    }
+}
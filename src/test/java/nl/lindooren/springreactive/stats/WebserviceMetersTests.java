@@ -0,0 +1,35 @@
+package nl.lindooren.springreactive.stats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebserviceMetersTests {
+
+    @Test
+    public void testCallsAreCountedPerOutcome() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        WebserviceMeters meters = new WebserviceMeters("books", registry);
+
+        meters.record(new WebserviceCallEvent("books", true, Optional.of(100L)));
+        meters.record(new WebserviceCallEvent("books", true, Optional.of(300L)));
+        meters.record(new WebserviceCallEvent("books", false, Optional.empty()));
+        meters.record(new WebserviceCallEvent("books", CallOutcome.TIMEOUT, Optional.empty(), Optional.empty(), 0));
+
+        assertThat(registry.get("upstream.calls").tags("webservice", "books", "outcome", "success")
+                .counter().count()).isEqualTo(2);
+        assertThat(registry.get("upstream.calls").tags("webservice", "books", "outcome", "error")
+                .counter().count()).isEqualTo(1);
+        assertThat(registry.get("upstream.calls").tags("webservice", "books", "outcome", "timeout")
+                .counter().count()).isEqualTo(1);
+        Timer responseTimes = registry.get("upstream.responseTime").tag("webservice", "books").timer();
+        assertThat(responseTimes.count()).isEqualTo(2);
+        assertThat(responseTimes.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(400);
+    }
+}